@@ -1,6 +1,7 @@
 import java.awt.Dimension;
 import java.io.File;
 
+import ray.RayTracer;
 import ray.gui.RayFrame;
 
 /**
@@ -15,6 +16,13 @@ public class Main {
     public static final String TITLE = "Ray Tracer";
 
     public static void main (String[] args) {
+        // -snapshot scene.xml scene.snap converts a scene instead of rendering it
+        if (args.length == 3 && args[0].equals("-snapshot")) {
+            RayTracer tracer = new RayTracer();
+            tracer.read(new File(args[1]));
+            tracer.writeSnapshot(new File(args[2]));
+            return;
+        }
         RayFrame viewer = new RayFrame(TITLE, SIZE);
         if (args.length == 0) {
             viewer.setVisible(true);
@@ -0,0 +1,158 @@
+package ray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+import ray.gui.Image;
+import ray.gui.SampleBuffer;
+import ray.math.Color;
+import ray.surface.Hit;
+
+/**
+ * Anti-aliases a fully rendered image by adding samples only to the pixels that need them.
+ *
+ * Sampling proceeds in rounds. Before each round, every pixel whose estimated standard error, or
+ * whose largest difference from one of its four neighbors, is above the threshold is picked to
+ * receive more samples, in scan line order until the sample budget is used up. The picked pixels
+ * are then sampled in parallel. Sample positions are jittered within the pixel by a low
+ * discrepancy sequence seeded from the pixel's position, so the result does not depend on the
+ * number of threads.
+ *
+ * @author Eli Williams (erw19)
+ */
+class AdaptiveSampler {
+    /** Most samples any one pixel will receive */
+    static final int MAX_SAMPLES = 16;
+    /** Samples added to a picked pixel in each round */
+    static final int SAMPLES_PER_ROUND = 4;
+    /** Number of pixels sampled by each parallel task */
+    private static final int CHUNK_SIZE = 1024;
+    // generators of the two dimensional R2 sequence
+    private static final double R2_X = 0.7548776662466927;
+    private static final double R2_Y = 0.5698402909980532;
+
+    private final RayTracer tracer;
+    private final Image image;
+    private final double threshold;
+    private final int budget;
+
+    /**
+     * Create a sampler for the given image.
+     *
+     * @param threshold largest standard error or neighbor difference, in any channel, that a
+     *        pixel can have without being picked for more samples
+     * @param budget most samples added to the whole image
+     */
+    AdaptiveSampler (RayTracer tracer, Image image, double threshold, int budget) {
+        this.tracer = tracer;
+        this.image = image;
+        this.threshold = threshold;
+        this.budget = budget;
+    }
+
+    /**
+     * Add samples until the budget is used up, no pixel needs more, or the job is cancelled.
+     */
+    void run (RenderJob job) {
+        final SampleBuffer samples = new SampleBuffer(image);
+        int remaining = budget;
+        while (remaining > 0 && !job.isCancelled()) {
+            // pick the pixels to sample in this round
+            final int[] picked = new int[image.getWidth() * image.getHeight()];
+            final int[] extra = new int[picked.length];
+            int numPicked = 0;
+            for (int y = 0; y < image.getHeight() && remaining > 0; y++) {
+                for (int x = 0; x < image.getWidth() && remaining > 0; x++) {
+                    int count = samples.getCount(x, y);
+                    if (count >= MAX_SAMPLES || !needsSamples(samples, x, y)) {
+                        continue;
+                    }
+                    int n = Math.min(remaining, Math.min(SAMPLES_PER_ROUND, MAX_SAMPLES - count));
+                    picked[numPicked] = y * image.getWidth() + x;
+                    extra[numPicked] = n;
+                    numPicked++;
+                    remaining -= n;
+                }
+            }
+            if (numPicked == 0) {
+                break;
+            }
+            // and sample them in parallel
+            List<ForkJoinTask<?>> chunks = new ArrayList<>();
+            for (int start = 0; start < numPicked; start += CHUNK_SIZE) {
+                final int first = start;
+                final int last = Math.min(start + CHUNK_SIZE, numPicked);
+                chunks.add(ForkJoinTask.adapt(new Runnable() {
+                    @Override
+                    public void run () {
+                        if (!job.isCancelled()) {
+                            sample(samples, picked, extra, first, last);
+                            job.chunkFinished();
+                        }
+                    }
+                }));
+            }
+            ForkJoinTask.invokeAll(chunks);
+        }
+    }
+
+    // true if the given pixel is noisy or differs too much from one of its neighbors
+    private boolean needsSamples (SampleBuffer samples, int x, int y) {
+        if (samples.getStandardError(x, y) > threshold) {
+            return true;
+        }
+        Color center = new Color();
+        Color neighbor = new Color();
+        image.getPixelColor(center, x, y);
+        int[][] offsets = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+        for (int[] offset : offsets) {
+            int nx = x + offset[0];
+            int ny = y + offset[1];
+            if (nx < 0 || ny < 0 || nx >= image.getWidth() || ny >= image.getHeight()) {
+                continue;
+            }
+            image.getPixelColor(neighbor, nx, ny);
+            if (Math.abs(center.x - neighbor.x) > threshold ||
+                Math.abs(center.y - neighbor.y) > threshold ||
+                Math.abs(center.z - neighbor.z) > threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // add the requested number of samples to picked pixels first through last - 1
+    private void sample (SampleBuffer samples, int[] picked, int[] extra, int first, int last) {
+        Hit hit = new Hit();
+        for (int i = first; i < last; i++) {
+            int x = picked[i] % image.getWidth();
+            int y = picked[i] / image.getWidth();
+            // rotate the sequence differently in every pixel
+            int hash = hash(x, y);
+            double rx = (hash & 0xffff) / 65536.0;
+            double ry = (hash >>> 16) / 65536.0;
+            for (int k = samples.getCount(x, y), end = k + extra[i]; k < end; k++) {
+                // sample 0 was the one at the pixel's own position, so keep offsets centered on it
+                double ox = fraction(k * R2_X + rx) - 0.5;
+                double oy = fraction(k * R2_Y + ry) - 0.5;
+                Color c = tracer.renderSample(image, x + ox, y + oy, hit).clamp(0, 1);
+                samples.addSample(c, x, y);
+            }
+        }
+    }
+
+    private static double fraction (double value) {
+        return value - Math.floor(value);
+    }
+
+    private static int hash (int x, int y) {
+        int h = x * 73856093 ^ y * 19349663;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
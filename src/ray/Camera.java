@@ -38,6 +38,8 @@ public class Camera {
     private Vector basisV;
     private Vector basisW;
     private Vector centerDir;
+    /** Index of viewPoint among the scene's shared origins, set when the scene is initialized. */
+    public int originId = Ray.NO_ORIGIN;
 
     // PARSER METHODS
     public void setPosition (Point viewPoint) {
@@ -92,7 +94,9 @@ public class Camera {
      * @param v The vertical coordinate (0 is bottom, 1 is top)
      */
     public Ray getRay (double u, double v) {
-        return new Ray(viewPoint, offsetFromCenter(u, v));
+        Ray ray = new Ray(viewPoint, offsetFromCenter(u, v));
+        ray.originId = originId;
+        return ray;
     }
 
     public void resizeViewPlane (double u, double v, double width, double height) {
@@ -2,6 +2,7 @@ package ray;
 
 import ray.math.Color;
 import ray.math.Point;
+import ray.math.Ray;
 
 /**
  * A simplistic point light which is infinitely small and emits constant power in all directions. 
@@ -16,6 +17,8 @@ public class Light {
     public final Point position = new Point();
     /** Color of the light. */
     public final Color color = new Color(1, 1, 1);
+    /** Index of position among the scene's shared origins, set when the scene is initialized. */
+    public int originId = Ray.NO_ORIGIN;
 
     // PARSER METHODS
     public void setPosition (Point position) {
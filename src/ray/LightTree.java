@@ -0,0 +1,283 @@
+package ray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import ray.math.Point;
+import ray.math.Vector;
+
+/**
+ * A hierarchy of clusters of lights, used to shade with many lights at the cost of a few.
+ *
+ * Lights are split in half along the longest side of their bounds until single lights remain.
+ * Each cluster stands in for all of its lights with one light placed at a representative, the
+ * brightest of its two children's representatives, carrying their total color. Shading a point
+ * then uses a cut through the tree: starting from the root, the cluster whose error could be the
+ * largest is replaced by its two children until no cluster could be off by more than the allowed
+ * fraction of the estimated total. Bright or nearby lights thus end up shaded one by one while
+ * dim or distant groups are shaded as a whole, with a single shadow ray.
+ *
+ * The bound on a cluster is its intensity times the largest cosine its lights may make with the
+ * normal, as suits the Lambertian term. It does not bound specular highlights, which shaders
+ * compute with every light instead.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class LightTree {
+    /** A cluster of lights. */
+    private static class Node {
+        /** The light standing in for the whole cluster, the light itself in a leaf. */
+        final Light light;
+        /** Bounds of the positions of the lights, minimum corner first. */
+        final double[] bounds;
+        /** Intensity of the cluster, the largest component of its total color. */
+        final double intensity;
+        /** The two halves, null in a leaf. */
+        final Node left, right;
+
+        Node (Light light) {
+            this.light = light;
+            Point p = light.position;
+            bounds = new double[] { p.x, p.y, p.z, p.x, p.y, p.z };
+            intensity = intensity(light);
+            left = right = null;
+        }
+
+        Node (Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            Light rep = right.intensity > left.intensity ? right.light : left.light;
+            light = new Light();
+            light.setPosition(rep.position);
+            light.setColor(left.light.color);
+            light.color.add(right.light.color);
+            light.originId = rep.originId;
+            bounds = new double[6];
+            for (int a = 0; a < 3; a++) {
+                bounds[a] = Math.min(left.bounds[a], right.bounds[a]);
+                bounds[a + 3] = Math.max(left.bounds[a + 3], right.bounds[a + 3]);
+            }
+            intensity = intensity(light);
+        }
+
+        boolean isLeaf () {
+            return left == null;
+        }
+    }
+
+    /**
+     * The cut being refined on one thread, kept so that cuts allocate nothing: a heap of clusters
+     * with the largest error first, in the same order java.util.PriorityQueue would keep them,
+     * and the list of lights returned.
+     */
+    private static class Cut {
+        final Node[] nodes;
+        /** The bound on the error of each cluster, zero for a single light. */
+        final double[] errors;
+        int size;
+        final List<Light> result;
+
+        Cut (int numLights) {
+            nodes = new Node[numLights];
+            errors = new double[numLights];
+            result = new ArrayList<>(numLights);
+        }
+
+        void add (Node node, double bound) {
+            double e = node.isLeaf() ? 0 : bound;
+            int k = size++;
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+                if (e <= errors[parent]) {
+                    break;
+                }
+                nodes[k] = nodes[parent];
+                errors[k] = errors[parent];
+                k = parent;
+            }
+            nodes[k] = node;
+            errors[k] = e;
+        }
+
+        void removeWorst () {
+            int n = --size;
+            Node x = nodes[n];
+            double e = errors[n];
+            nodes[n] = null;
+            if (n == 0) {
+                return;
+            }
+            int k = 0;
+            int half = n >>> 1;
+            while (k < half) {
+                int child = 2 * k + 1;
+                if (child + 1 < n && errors[child] < errors[child + 1]) {
+                    child++;
+                }
+                if (e >= errors[child]) {
+                    break;
+                }
+                nodes[k] = nodes[child];
+                errors[k] = errors[child];
+                k = child;
+            }
+            nodes[k] = x;
+            errors[k] = e;
+        }
+    }
+
+    /** Fraction of the total that the error of any one cluster must stay below. */
+    private final double error;
+    private final Node root;
+    /** The cut of each rendering thread. */
+    private final ThreadLocal<Cut> cuts;
+
+    /**
+     * Cluster the given lights, which must already have their origin ids.
+     *
+     * @param error fraction of the shaded total that the error of any one cluster may reach
+     */
+    public LightTree (List<Light> lights, double error) {
+        this.error = error;
+        root = lights.isEmpty() ? null : build(new ArrayList<>(lights));
+        // a cut never holds more clusters than there are lights
+        final int numLights = lights.size();
+        cuts = new ThreadLocal<Cut>() {
+            @Override
+            protected Cut initialValue () {
+                return new Cut(numLights);
+            }
+        };
+    }
+
+    private static Node build (List<Light> lights) {
+        if (lights.size() == 1) {
+            return new Node(lights.get(0));
+        }
+        // split at the median along the longest side
+        double[] bounds = new double[] {
+            Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        for (Light light : lights) {
+            double[] p = { light.position.x, light.position.y, light.position.z };
+            for (int a = 0; a < 3; a++) {
+                bounds[a] = Math.min(bounds[a], p[a]);
+                bounds[a + 3] = Math.max(bounds[a + 3], p[a]);
+            }
+        }
+        int longest = 0;
+        for (int a = 1; a < 3; a++) {
+            if (bounds[a + 3] - bounds[a] > bounds[longest + 3] - bounds[longest]) {
+                longest = a;
+            }
+        }
+        final int axis = longest;
+        Collections.sort(lights, new Comparator<Light>() {
+            @Override
+            public int compare (Light a, Light b) {
+                return Double.compare(coordinate(a.position, axis), coordinate(b.position, axis));
+            }
+        });
+        int middle = lights.size() / 2;
+        return new Node(build(lights.subList(0, middle)),
+                        build(lights.subList(middle, lights.size())));
+    }
+
+    /**
+     * Returns the lights, single or standing in for a cluster, with which to shade a point with
+     * the given normal. Clusters that cannot light the point are left out.
+     *
+     * The list returned is reused by the next cut on the same thread, so it must not be kept.
+     */
+    public List<Light> cut (Point point, Vector normal) {
+        Cut cut = cuts.get();
+        cut.result.clear();
+        if (root == null) {
+            return cut.result;
+        }
+        cut.size = 0;
+        double total = 0;
+        double rootBound = bound(root, point, normal);
+        if (rootBound > 0) {
+            cut.add(root, rootBound);
+            total += estimate(root, point, normal);
+        }
+        // refine the worst cluster while it could be off by too much
+        while (cut.size > 0) {
+            if (cut.errors[0] <= error * total) {
+                break;
+            }
+            Node worst = cut.nodes[0];
+            cut.removeWorst();
+            total -= estimate(worst, point, normal);
+            total += refine(cut, worst.left, point, normal);
+            total += refine(cut, worst.right, point, normal);
+        }
+        for (int i = 0; i < cut.size; i++) {
+            cut.result.add(cut.nodes[i].light);
+            cut.nodes[i] = null;
+        }
+        return cut.result;
+    }
+
+    // add the child of a refined cluster to the cut if it can light the point, returning its
+    // estimated contribution
+    private static double refine (Cut cut, Node child, Point point, Vector normal) {
+        double bound = bound(child, point, normal);
+        if (bound <= 0) {
+            return 0;
+        }
+        cut.add(child, bound);
+        return estimate(child, point, normal);
+    }
+
+    // the contribution of a cluster if all of it were at its representative
+    private static double estimate (Node node, Point point, Vector normal) {
+        Point q = node.light.position;
+        double lx = q.x - point.x, ly = q.y - point.y, lz = q.z - point.z;
+        double along = lx * normal.x + ly * normal.y + lz * normal.z;
+        if (along <= 0) {
+            return 0;
+        }
+        return node.intensity * along / Math.sqrt(lx * lx + ly * ly + lz * lz);
+    }
+
+    // the largest contribution any arrangement of the cluster's lights within its bounds can make
+    private static double bound (Node node, Point point, Vector normal) {
+        double[] b = node.bounds;
+        // largest distance along the normal, and smallest distance, to a point of the bounds
+        double along = extent(b[0] - point.x, b[3] - point.x, normal.x) +
+                       extent(b[1] - point.y, b[4] - point.y, normal.y) +
+                       extent(b[2] - point.z, b[5] - point.z, normal.z);
+        if (along <= 0) {
+            return 0;
+        }
+        double gx = gap(b[0] - point.x, b[3] - point.x);
+        double gy = gap(b[1] - point.y, b[4] - point.y);
+        double gz = gap(b[2] - point.z, b[5] - point.z);
+        double distance = Math.sqrt(gx * gx + gy * gy + gz * gz);
+        double cosine = distance > 0 ? Math.min(1, along / distance) : 1;
+        return node.intensity * cosine;
+    }
+
+    // largest value of n * x for x between low and high
+    private static double extent (double low, double high, double n) {
+        return Math.max(n * low, n * high);
+    }
+
+    // distance from 0 to the interval between low and high
+    private static double gap (double low, double high) {
+        return Math.max(0, Math.max(low, -high));
+    }
+
+    private static double intensity (Light light) {
+        return Math.max(light.color.x, Math.max(light.color.y, light.color.z));
+    }
+
+    private static double coordinate (Point p, int axis) {
+        return axis == 0 ? p.x : axis == 1 ? p.y : p.z;
+    }
+}
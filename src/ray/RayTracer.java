@@ -2,15 +2,25 @@ package ray;
 
 import java.awt.Dimension;
 import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import ray.accel.RayPacket;
 import ray.gui.Image;
 import ray.gui.Parser;
 import ray.math.Color;
 import ray.math.Ray;
+import ray.surface.Hit;
 import ray.surface.Surface;
 
 
 public class RayTracer {
     public static final Color BACKGROUND_COLOR = new Color();
+    /** Width and height of the tiles that are rendered in parallel, in pixels */
+    public static final int TILE_SIZE = 64;
+    /** Width and height of the blocks of primary rays traced together as a packet, in samples */
+    public static final int PACKET_WIDTH = 8;
+    /** Largest block that adaptive refinement will fill by interpolation, in pixels */
+    public static final int ADAPTIVE_MAX_SIZE = 16;
 
     /** The scene being rendered */
     private Scene scene = null;
@@ -20,21 +30,43 @@ public class RayTracer {
     private String name;
     /** Only need one parser for all files */
     private Parser parser;
+    /** Threads used to render tiles */
+    private ForkJoinPool pool;
+    /** Largest color difference for a block to count as uniform, negative to always refine */
+    private double adaptiveThreshold;
+    /** Largest standard error or neighbor difference allowed before anti-aliasing a pixel */
+    private double antialiasThreshold;
+    /** Most samples added to anti-alias each frame, 0 to turn anti-aliasing off */
+    private int antialiasBudget;
 
     /**
      * Create a basic ray tracer.
+     *
+     * It renders with as many threads as there are processors, unless the system property
+     * ray.threads says otherwise. Adaptive refinement is off unless the system property
+     * ray.adaptive gives a threshold for it, and anti-aliasing is off unless ray.aaBudget gives
+     * a sample budget for it (with ray.aaThreshold as its threshold).
      */
     public RayTracer () {
         image = new Image();
         parser = new Parser();
+        setThreads(Integer.getInteger("ray.threads", Runtime.getRuntime().availableProcessors()));
+        setAdaptiveThreshold(Double.parseDouble(System.getProperty("ray.adaptive", "-1")));
+        setAntialiasing(Double.parseDouble(System.getProperty("ray.aaThreshold", "0.05")),
+                        Integer.getInteger("ray.aaBudget", 0));
     }
 
     /**
-     * Read a scene from an XML data file.
+     * Read a scene from an XML data file or a snapshot written by writeSnapshot, whichever the
+     * file turns out to be.
      */
     public void read (File file) {
         try {
-            scene = (Scene)parser.parse(file, Scene.class);
+            if (SceneSnapshot.isSnapshot(file)) {
+                scene = SceneSnapshot.read(file);
+            } else {
+                scene = (Scene)parser.parse(file, Scene.class);
+            }
             name = file.getName();
             reset();
         } catch (Exception e) {
@@ -44,6 +76,20 @@ public class RayTracer {
         }
     }
 
+    /**
+     * Write the scene read last to the given file as a snapshot, which read loads much faster
+     * than the XML it came from.
+     */
+    public void writeSnapshot (File file) {
+        try {
+            SceneSnapshot.write(scene, file);
+        } catch (Exception e) {
+            System.err.println("While writing snapshot file '" + file + "':");
+            System.err.println("    " + e);
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Write rendered scene to the given file.
      */
@@ -95,6 +141,54 @@ public class RayTracer {
         reset();
     }
 
+    /**
+     * Sets number of threads used to render.
+     */
+    public void setThreads (int threads) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = new ForkJoinPool(Math.max(1, threads));
+    }
+
+    /**
+     * @return number of threads used to render
+     */
+    public int getThreads () {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Turns on adaptive refinement for passes after the first one.
+     *
+     * A block of the previous pass that is no larger than ADAPTIVE_MAX_SIZE is then filled by
+     * interpolating between its four corner samples, instead of being traced at the finer
+     * stride, if all four corners saw the same surface (or all saw the background) and their
+     * colors differ by at most the threshold in each channel. Blocks that straddle an edge or a
+     * shadow boundary fail this test and are refined as usual, but features that fit entirely
+     * inside a block, such as small highlights, can be missed.
+     *
+     * @param threshold largest color difference allowed, negative to turn refinement off
+     */
+    public void setAdaptiveThreshold (double threshold) {
+        adaptiveThreshold = threshold;
+    }
+
+    /**
+     * Turns on adaptive anti-aliasing after the last pass of a render, if that pass has stride 1.
+     *
+     * Pixels whose color is noisy, or differs from one of their neighbors, by more than the
+     * threshold receive extra jittered samples, up to AdaptiveSampler.MAX_SAMPLES per pixel and
+     * budget for the whole frame.
+     *
+     * @param threshold largest standard error or neighbor difference allowed in any channel
+     * @param budget most samples added per frame, 0 to turn anti-aliasing off
+     */
+    public void setAntialiasing (double threshold, int budget) {
+        antialiasThreshold = threshold;
+        antialiasBudget = budget;
+    }
+
     /**
      * Reset the size of the viewport window.
      */
@@ -116,60 +210,231 @@ public class RayTracer {
     }
 
     /**
-     * Render the entire scene in pixels of size stride.
+     * Render the entire scene in pixels of size stride, returning when it is done.
+     *
+     * The image is split into tiles that are rendered in parallel. Each pixel only depends on its
+     * own sample, so the result is the same whatever the number of threads.
      */
     public void render (int stride) {
+        RenderJob job = start(null, stride);
+        if (job == null) {
+            return;
+        }
+        try {
+            job.get();
+        } catch (InterruptedException e) {
+            job.cancel(false);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while rendering", e.getCause());
+        }
+    }
+
+    /**
+     * Start rendering the scene in the background, with one pass for each of the given pixel
+     * sizes. The passes draw into the current image; call reset first to start from a clean one.
+     *
+     * @param listener receives progress reports, may be null
+     * @param strides pixel size of each pass, in order
+     * @return the running job, null if there is no scene to render
+     */
+    public RenderJob start (RenderJob.Listener listener, int... strides) {
         if (scene == null) {
             System.out.println("No scene to render.");
+            return null;
+        }
+        AdaptiveSampler sampler = null;
+        if (antialiasBudget > 0 && strides.length > 0 && strides[strides.length - 1] == 1) {
+            sampler = new AdaptiveSampler(this, image, antialiasThreshold, antialiasBudget);
+        }
+        RenderJob job = new RenderJob(this, scene, image, sampler, listener, strides);
+        job.start(pool);
+        return job;
+    }
+
+    /**
+     * Render one tile of the image in pixels of size stride. Each pixel is colored by the sample
+     * at its lower left corner, so the samples of a pass are also samples of every later pass with
+     * a smaller stride that divides it. Samples already in the image are reused, not traced again.
+     *
+     * @param previous stride of the previous pass, which the tile size is a multiple of, or 0
+     */
+    void renderTile (Image target, int x0, int y0, int tileSize, int stride, int previous) {
+        int x1 = Math.min(x0 + tileSize, target.getWidth());
+        int y1 = Math.min(y0 + tileSize, target.getHeight());
+        if (adaptiveThreshold < 0 || previous <= stride || previous % stride != 0 ||
+            previous > ADAPTIVE_MAX_SIZE) {
+            refine(target, x0, y0, x1, y1, stride);
             return;
         }
-        scene.initialize();
-        Dimension size = getSize();
-        int halfStride = Math.max(1, stride / 2);
-        for (int y = size.height - halfStride - 1; y >= halfStride; y -= stride) {
-            for (int x = halfStride; x < size.width - halfStride; x += stride) {
-                Color c = renderPixel(x, y).clamp(0, 1);
-                for (int py = -halfStride; py < halfStride; py++) {
-                    for (int px = -halfStride; px < halfStride; px++) {
-                        image.setPixelColor(c, px + x, py + y);
+        for (int y = y0; y < y1; y += previous) {
+            for (int x = x0; x < x1; x += previous) {
+                if (!interpolate(target, x, y, previous)) {
+                    refine(target, x, y, Math.min(x + previous, x1), Math.min(y + previous, y1),
+                           stride);
+                }
+            }
+        }
+    }
+
+    // render the given part of the image in pixels of size stride
+    private void refine (Image target, int x0, int y0, int x1, int y1, int stride) {
+        RayPacket packet = new RayPacket();
+        int span = PACKET_WIDTH * stride;
+        for (int y = y0; y < y1; y += span) {
+            for (int x = x0; x < x1; x += span) {
+                refine(target, x, y, Math.min(x + span, x1), Math.min(y + span, y1), stride,
+                       packet);
+            }
+        }
+    }
+
+    // render a block of at most PACKET_WIDTH by PACKET_WIDTH pixels, tracing the samples that
+    // are not in the image yet as one packet
+    private void refine (Image target, int x0, int y0, int x1, int y1, int stride,
+                         RayPacket packet) {
+        Camera camera = scene.getCamera();
+        int[] xs = new int[RayPacket.MAX_SIZE];
+        int[] ys = new int[RayPacket.MAX_SIZE];
+        Color c = new Color();
+        packet.clear(camera.viewPoint, camera.originId);
+        for (int y = y0; y < y1; y += stride) {
+            for (int x = x0; x < x1; x += stride) {
+                // the whole block was filled in by an earlier pass
+                if (target.isInterpolated(x, y)) {
+                    continue;
+                }
+                if (target.isSampled(x, y)) {
+                    if (stride > 1) {
+                        target.getPixelColor(c, x, y);
+                        fill(target, c, x, y, stride);
                     }
+                    continue;
+                }
+                int i = packet.add(camera.getRay((double)x / target.getWidth(),
+                                                 (double)y / target.getHeight()));
+                xs[i] = x;
+                ys[i] = y;
+            }
+        }
+        if (packet.size == 0) {
+            return;
+        }
+        // bound the packet by the rays through the corners of the block's samples
+        double u0 = (double)x0 / target.getWidth();
+        double v0 = (double)y0 / target.getHeight();
+        double u1 = (double)(x0 + (x1 - 1 - x0) / stride * stride) / target.getWidth();
+        double v1 = (double)(y0 + (y1 - 1 - y0) / stride * stride) / target.getHeight();
+        packet.setFrustum(camera.getRay(u0, v0).direction, camera.getRay(u1, v0).direction,
+                          camera.getRay(u1, v1).direction, camera.getRay(u0, v1).direction);
+        scene.intersect(packet);
+        Hit hit = new Hit();
+        for (int i = 0; i < packet.size; i++) {
+            c = shade(packet.rays[i], packet.getHit(i, hit)).clamp(0, 1);
+            fill(target, c, xs[i], ys[i], stride);
+            target.setSampled(xs[i], ys[i], hit.surface);
+        }
+    }
+
+    // color the pixel of size stride whose lower left corner is (x, y)
+    private void fill (Image target, Color c, int x, int y, int stride) {
+        int x1 = Math.min(x + stride, target.getWidth());
+        int y1 = Math.min(y + stride, target.getHeight());
+        for (int py = y; py < y1; py++) {
+            for (int px = x; px < x1; px++) {
+                target.setPixelColor(c, px, py);
+            }
+        }
+    }
+
+    // fill the block of the given size at (x0, y0) from its corners if they agree, returns true if
+    // the block was filled
+    private boolean interpolate (Image target, int x0, int y0, int size) {
+        int x1 = x0 + size;
+        int y1 = y0 + size;
+        if (x1 >= target.getWidth() || y1 >= target.getHeight() ||
+            !target.isSampled(x0, y0) || !target.isSampled(x1, y0) ||
+            !target.isSampled(x0, y1) || !target.isSampled(x1, y1)) {
+            return false;
+        }
+        Surface surface = target.getSampledSurface(x0, y0);
+        if (target.getSampledSurface(x1, y0) != surface ||
+            target.getSampledSurface(x0, y1) != surface ||
+            target.getSampledSurface(x1, y1) != surface) {
+            return false;
+        }
+        Color c00 = new Color();
+        Color c10 = new Color();
+        Color c01 = new Color();
+        Color c11 = new Color();
+        target.getPixelColor(c00, x0, y0);
+        target.getPixelColor(c10, x1, y0);
+        target.getPixelColor(c01, x0, y1);
+        target.getPixelColor(c11, x1, y1);
+        if (!isClose(c00, c10) || !isClose(c00, c01) || !isClose(c00, c11)) {
+            return false;
+        }
+        Color c = new Color();
+        for (int y = y0; y < y1; y++) {
+            double fy = (double)(y - y0) / size;
+            for (int x = x0; x < x1; x++) {
+                if (target.isSampled(x, y)) {
+                    continue;
                 }
+                double fx = (double)(x - x0) / size;
+                c.set(0, 0, 0);
+                c.scaleAdd((1 - fx) * (1 - fy), c00).scaleAdd(fx * (1 - fy), c10)
+                 .scaleAdd((1 - fx) * fy, c01).scaleAdd(fx * fy, c11);
+                target.setPixelColor(c, x, y);
+                target.setInterpolated(x, y);
             }
         }
+        return true;
+    }
+
+    // true if no channel of the two colors differs by more than the adaptive threshold
+    private boolean isClose (Color a, Color b) {
+        return Math.abs(a.x - b.x) <= adaptiveThreshold &&
+               Math.abs(a.y - b.y) <= adaptiveThreshold &&
+               Math.abs(a.z - b.z) <= adaptiveThreshold;
     }
 
     /**
      * Render the given pixel.
      */
     public Color renderPixel (int x, int y) {
-        Ray ray = scene.getCamera().getRay((double)x / getSize().width,
-                                           (double)y / getSize().height);
-        return trace(ray);
-    }
-
-    /**
-     * Trace the given ray's path through the scene.
-     */
-    private Color trace (Ray ray) {
-        // TODO: complete this method, you may want to add parameters to it if you implement recursion
-        Surface closest = null;
-        double tmin = Double.MAX_VALUE;
-        for(int i = 0; i < scene.getSurfaces().size(); i++) {
-        	double[] intersections = scene.getSurfaces().get(i).getIntersection(ray);
-        	if(intersections != null && intersections.length != 0) {
-        		for(int j = 0; j < intersections.length; j++){
-        			double check = ray.getOrigin().distance(ray.evaluate(intersections[j]));
-        			if(tmin > check){
-        				tmin = check;
-        				closest = scene.getSurfaces().get(i);
-        			}
-        		}
-        	}
-        }
-        if (closest == null) {
-            return BACKGROUND_COLOR;
+        return renderSample(image, x, y, new Hit());
+    }
+
+    /**
+     * Render a sample at the given position, in pixels, of the given image, leaving what the
+     * primary ray hit in the given record.
+     */
+    Color renderSample (Image target, double x, double y, Hit hit) {
+        Ray ray = scene.getCamera().getRay(x / target.getWidth(), y / target.getHeight());
+        return trace(ray, hit);
+    }
+
+    /**
+     * Trace the given ray's path through the scene. The color returned belongs to the caller.
+     */
+    private Color trace (Ray ray, Hit hit) {
+        hit.reset();
+        scene.intersect(ray, hit);
+        return shade(ray, hit);
+    }
+
+    /**
+     * Returns the color seen along the given ray, whose closest hit has already been found.
+     */
+    private Color shade (Ray ray, Hit hit) {
+        if (!hit.isHit()) {
+            return new Color(BACKGROUND_COLOR);
         } else {
-            return closest.getShader().shade(ray.evaluate(tmin), closest, scene);
+            hit.point.set(ray.getOrigin());
+            hit.point.scaleAdd(hit.tMax, ray.direction);
+            hit.surface.computeNormal(hit);
+            return scene.getMaterial(hit.getMaterial()).shade(hit, scene);
         }
     }
 }
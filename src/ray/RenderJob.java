@@ -0,0 +1,219 @@
+package ray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ray.gui.Image;
+
+/**
+ * A render of a scene running in the background, made of one or more passes with decreasing
+ * pixel sizes.
+ *
+ * Each pass splits the image into tiles that are rendered in parallel. Cancelling the job takes
+ * effect at tile granularity: the job reports itself cancelled straight away, tiles that have not
+ * started are skipped and tiles already running are allowed to finish, so the image is never left
+ * with a partly written tile.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class RenderJob implements Future<Image> {
+    /**
+     * Receives progress reports from a running job. Methods are called from render threads.
+     */
+    public interface Listener {
+        /**
+         * Called after each tile has been rendered.
+         */
+        public void tileFinished (RenderJob job);
+
+        /**
+         * Called after each pass has been completed, passes are numbered from 1.
+         */
+        public void passFinished (RenderJob job, int pass);
+
+        /**
+         * Called once when the job stops running, whether it completed, was cancelled or failed.
+         */
+        public void jobFinished (RenderJob job);
+    }
+
+    private final RayTracer tracer;
+    private final Scene scene;
+    private final Image image;
+    private final int[] strides;
+    private final AdaptiveSampler sampler;
+    private final Listener listener;
+    private final CompletableFuture<Image> result = new CompletableFuture<>();
+    private final AtomicInteger tilesDone = new AtomicInteger();
+    private final int totalTiles;
+    private volatile boolean cancelled;
+
+    /**
+     * Create a job that renders the scene into the image with one pass per stride, followed by
+     * an anti-aliasing pass if a sampler is given.
+     */
+    RenderJob (RayTracer tracer, Scene scene, Image image, AdaptiveSampler sampler,
+               Listener listener, int... strides) {
+        this.tracer = tracer;
+        this.scene = scene;
+        this.image = image;
+        this.sampler = sampler;
+        this.listener = listener;
+        this.strides = strides.clone();
+        int tiles = 0;
+        for (int pass = 0; pass < strides.length; pass++) {
+            int tileSize = tileSize(pass);
+            tiles += ((image.getWidth() + tileSize - 1) / tileSize) *
+                     ((image.getHeight() + tileSize - 1) / tileSize);
+        }
+        totalTiles = tiles;
+    }
+
+    /**
+     * Start running this job on the given pool.
+     */
+    void start (ForkJoinPool pool) {
+        pool.execute(new Runnable() {
+            @Override
+            public void run () {
+                try {
+                    scene.initialize();
+                    for (int pass = 0; pass < strides.length && !cancelled; pass++) {
+                        ForkJoinTask.invokeAll(makeTiles(pass));
+                        if (!cancelled && listener != null) {
+                            listener.passFinished(RenderJob.this, pass + 1);
+                        }
+                    }
+                    if (sampler != null && !cancelled) {
+                        sampler.run(RenderJob.this);
+                        if (!cancelled && listener != null) {
+                            listener.passFinished(RenderJob.this, getNumPasses());
+                        }
+                    }
+                    result.complete(image);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    if (listener != null) {
+                        listener.jobFinished(RenderJob.this);
+                    }
+                }
+            }
+        });
+    }
+
+    // one task for each tile of the image in the given pass
+    private List<ForkJoinTask<?>> makeTiles (int pass) {
+        final int pixelSize = Math.max(1, strides[pass]);
+        final int previous = pass > 0 ? strides[pass - 1] : 0;
+        final int tileSize = tileSize(pass);
+        List<ForkJoinTask<?>> tiles = new ArrayList<>();
+        for (int y = 0; y < image.getHeight(); y += tileSize) {
+            for (int x = 0; x < image.getWidth(); x += tileSize) {
+                final int x0 = x;
+                final int y0 = y;
+                tiles.add(ForkJoinTask.adapt(new Runnable() {
+                    @Override
+                    public void run () {
+                        if (cancelled) {
+                            return;
+                        }
+                        tracer.renderTile(image, x0, y0, tileSize, pixelSize, previous);
+                        tilesDone.incrementAndGet();
+                        if (listener != null) {
+                            listener.tileFinished(RenderJob.this);
+                        }
+                    }
+                }));
+            }
+        }
+        return tiles;
+    }
+
+    // tiles must hold a whole number of pixels of this pass and of the previous one
+    private int tileSize (int pass) {
+        int pixelSize = Math.max(1, strides[pass]);
+        if (pass > 0) {
+            pixelSize = Math.max(pixelSize, strides[pass - 1]);
+        }
+        return (RayTracer.TILE_SIZE + pixelSize - 1) / pixelSize * pixelSize;
+    }
+
+    /**
+     * @return image being rendered
+     */
+    public Image getImage () {
+        return image;
+    }
+
+    /**
+     * @return scene being rendered
+     */
+    public Scene getScene () {
+        return scene;
+    }
+
+    /**
+     * Report that a group of pixels was anti-aliased.
+     */
+    void chunkFinished () {
+        if (listener != null) {
+            listener.tileFinished(this);
+        }
+    }
+
+    /**
+     * @return number of passes in this job, counting anti-aliasing as the last one
+     */
+    public int getNumPasses () {
+        return strides.length + (sampler != null ? 1 : 0);
+    }
+
+    /**
+     * @return fraction of all tiles over all passes that have been rendered, between 0 and 1;
+     *         anti-aliasing is not included
+     */
+    public double getProgress () {
+        return totalTiles == 0 ? 1 : (double)tilesDone.get() / totalTiles;
+    }
+
+    /**
+     * Stop the job. Tiles already being rendered are finished, but the job is done immediately.
+     *
+     * @param mayInterruptIfRunning ignored, render threads are never interrupted
+     */
+    @Override
+    public boolean cancel (boolean mayInterruptIfRunning) {
+        cancelled = true;
+        return result.cancel(false);
+    }
+
+    @Override
+    public boolean isCancelled () {
+        return result.isCancelled();
+    }
+
+    @Override
+    public boolean isDone () {
+        return result.isDone();
+    }
+
+    @Override
+    public Image get () throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    @Override
+    public Image get (long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+}
@@ -1,9 +1,24 @@
 package ray;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
+import ray.accel.OccluderMap;
+import ray.accel.RayPacket;
+import ray.accel.SphereBatch;
+import ray.accel.SurfaceBVH;
+import ray.math.Point;
+import ray.math.Ray;
+import ray.math.Vector;
+import ray.shader.MaterialTable;
 import ray.shader.Shader;
+import ray.surface.Group;
+import ray.surface.Hit;
+import ray.surface.Instance;
 import ray.surface.Surface;
 
 /**
@@ -20,8 +35,43 @@ public class Scene {
     private List<Light> lights;
     /** The list of surfaces for the scene. */
     private List<Surface> surfaces;
+    /** The groups declared in the scene, which only appear in it through instances. */
+    private List<Group> groups;
     /** The list of materials in the scene . */
     private List<Shader> shaders;
+    /** The distinct shaders of the surfaces, built when the scene is initialized. */
+    private MaterialTable materials;
+    /** Hierarchy over the surfaces, built when the scene is initialized unless given one. */
+    private SurfaceBVH accelerator;
+    /** Whether the surfaces have been initialized since they last changed. */
+    private boolean prepared;
+    /** Positions of the camera and the lights when the surfaces last precomputed for them. */
+    private Point[] cachedOrigins;
+    /**
+     * Most bytes all occluder maps may take together. Lights whose map does not fit have their
+     * shadow rays traced through the hierarchy.
+     */
+    private static final long MAX_OCCLUDER_MEMORY = 1 << 28;
+    /** The spheres among the surfaces, in the same order, shared by the occluder maps. */
+    private SphereBatch occluderSpheres;
+    /**
+     * Surfaces around each light, indexed by origin id. Each is built the first time a shadow ray
+     * leaves its light, and kept until the surfaces or the light move.
+     */
+    private AtomicReferenceArray<OccluderMap> occluders;
+    /** Held while building the occluder map of the light with the same origin id. */
+    private Object[] occluderLocks;
+    /** Number of bytes the occluder maps may still take. */
+    private final AtomicLong occluderBudget = new AtomicLong();
+    /** For each rendering thread, the surface that last blocked a ray from each origin, or -1. */
+    private ThreadLocal<int[]> lastOccluders;
+    /** Shadow rays blocked by the last occluder of their thread, and all other shadow rays. */
+    private final LongAdder occluderHits = new LongAdder();
+    private final LongAdder occluderMisses = new LongAdder();
+    /** Error allowed when shading with clusters of lights, 0 to always use every light. */
+    private double lightError = 0;
+    /** Clusters of the lights, built when the scene is initialized if lightError is set. */
+    private LightTree lightTree;
 
     /**
      * Create an empty scene.
@@ -29,6 +79,7 @@ public class Scene {
     public Scene () {
         lights = new ArrayList<>();
         surfaces = new ArrayList<>();
+        groups = new ArrayList<>();
         shaders = new ArrayList<>();
     }
 
@@ -54,11 +105,63 @@ public class Scene {
         return lights;
     }
 
+    /**
+     * Set the fraction of the shaded light that any cluster of lights standing in for its members
+     * may be off by. With many lights, a few clusters then shade each point instead of every
+     * light. The default of 0 shades with every light.
+     */
+    public void setLightError (double lightError) {
+        this.lightError = lightError;
+    }
+
+    public double getLightError () {
+        return lightError;
+    }
+
+    /**
+     * Returns the lights with which to shade a point with the given normal: every light, or if a
+     * light error is set, lights standing in for clusters of them. Clusters only bound the diffuse
+     * light, so highlights should be shaded with every light.
+     *
+     * The list returned may be reused by the next call on the same thread, so it must not be
+     * kept. Only valid after the scene has been initialized.
+     */
+    public List<Light> getLights (Point point, Vector normal) {
+        if (lightTree == null) {
+            return lights;
+        }
+        return lightTree.cut(point, normal);
+    }
+
     /**
      * Add the surface to this scene.
      */
     public void addSurface (Surface toAdd) {
         surfaces.add(toAdd);
+        accelerator = null;
+        prepared = false;
+    }
+
+    /**
+     * Add an instance of a group to this scene.
+     */
+    public void addInstance (Instance toAdd) {
+        addSurface(toAdd);
+    }
+
+    /**
+     * Declare a group. Groups only appear in the scene through instances, so this just keeps the
+     * group, which can then be named and referred to later.
+     */
+    public void addGroup (Group toAdd) {
+        groups.add(toAdd);
+    }
+
+    /**
+     * Get the scene's declared groups.
+     */
+    public List<Group> getGroups () {
+        return groups;
     }
 
     /**
@@ -68,6 +171,31 @@ public class Scene {
         shaders.add(toAdd);
     }
 
+    /**
+     * Get the scene's shaders.
+     */
+    public List<Shader> getShaders () {
+        return shaders;
+    }
+
+    /**
+     * Returns the shader with the given id, as given by Surface.getMaterial.
+     *
+     * Only valid after the scene has been initialized.
+     */
+    public Shader getMaterial (int id) {
+        return materials.get(id);
+    }
+
+    /**
+     * Returns the number of distinct shaders among the surfaces.
+     *
+     * Only valid after the scene has been initialized.
+     */
+    public int getNumMaterials () {
+        return materials.size();
+    }
+
     /**
      * Get the scene's camera.
      */
@@ -83,9 +211,215 @@ public class Scene {
     }
 
     /**
-     * Set up scene for rendering.
+     * Set up scene for rendering. The first time, this also numbers the distinct shaders of the
+     * surfaces, initializes every surface, which precomputes what it can for intersection, and
+     * builds the hierarchy over them unless one was given with useAccelerator. Every time,
+     * surfaces are given the current camera and light positions to precompute for, unless those
+     * have not moved since; the surfaces that may cast shadows are then sorted again around each
+     * light that moved, once its first shadow ray is traced. Lights are clustered if a light
+     * error is set.
      */
-    public void initialize () {
+    public synchronized void initialize () {
         camera.initialize();
+        prepare();
+        // camera and shadow rays all start at one of these, so surfaces can prepare for them
+        Point[] origins = new Point[1 + lights.size()];
+        camera.originId = 0;
+        origins[0] = camera.viewPoint;
+        for (int i = 0; i < lights.size(); i++) {
+            lights.get(i).originId = i + 1;
+            origins[i + 1] = lights.get(i).position;
+        }
+        if (!isCached(origins)) {
+            accelerator.cacheOrigins(origins);
+            uncacheOccluders(origins);
+            cachedOrigins = new Point[origins.length];
+            for (int id = 0; id < origins.length; id++) {
+                cachedOrigins[id] = new Point(origins[id]);
+            }
+        }
+        final int numOrigins = origins.length;
+        lastOccluders = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue () {
+                int[] entries = new int[numOrigins];
+                Arrays.fill(entries, -1);
+                return entries;
+            }
+        };
+        occluderHits.reset();
+        occluderMisses.reset();
+        lightTree = lightError > 0 ? new LightTree(lights, lightError) : null;
+    }
+
+    /**
+     * Returns the hierarchy over the surfaces, initializing them and building it if that has not
+     * been done since they last changed.
+     */
+    public synchronized SurfaceBVH getAccelerator () {
+        prepare();
+        return accelerator;
+    }
+
+    /**
+     * Use the given hierarchy, built over exactly the surfaces of this scene in the same order,
+     * instead of building one when the scene is initialized.
+     */
+    public synchronized void useAccelerator (SurfaceBVH tree) {
+        if (tree.getNumSurfaces() != surfaces.size()) {
+            throw new Error("Hierarchy is over " + tree.getNumSurfaces() + " surfaces, not " +
+                            surfaces.size());
+        }
+        for (int i = 0; i < surfaces.size(); i++) {
+            if (tree.getSurface(i) != surfaces.get(i)) {
+                throw new Error("Hierarchy is not over the surfaces of the scene");
+            }
+        }
+        accelerator = tree;
+        prepared = false;
+    }
+
+    // number the distinct shaders, initialize every surface and build the hierarchy over them,
+    // unless done since the surfaces last changed
+    private void prepare () {
+        if (prepared) {
+            return;
+        }
+        materials = new MaterialTable();
+        for (Surface surface : surfaces) {
+            surface.internMaterials(materials);
+        }
+        for (Surface surface : surfaces) {
+            surface.initialize();
+        }
+        if (accelerator == null) {
+            accelerator = new SurfaceBVH(surfaces);
+        }
+        occluderSpheres = new SphereBatch(surfaces.toArray(new Surface[surfaces.size()]));
+        cachedOrigins = null;
+        prepared = true;
+    }
+
+    // drop the occluder maps of the lights that are not where they were when the surfaces last
+    // precomputed, or of every light if the surfaces or the number of lights changed since
+    private void uncacheOccluders (Point[] origins) {
+        if (cachedOrigins == null || cachedOrigins.length != origins.length) {
+            occluders = new AtomicReferenceArray<>(origins.length);
+            occluderLocks = new Object[origins.length];
+            for (int id = 0; id < origins.length; id++) {
+                occluderLocks[id] = new Object();
+            }
+            occluderBudget.set(MAX_OCCLUDER_MEMORY);
+            return;
+        }
+        for (int id = 1; id < origins.length; id++) {
+            Point p = cachedOrigins[id];
+            if (p.x != origins[id].x || p.y != origins[id].y || p.z != origins[id].z) {
+                OccluderMap map = occluders.getAndSet(id, null);
+                if (map != null) {
+                    occluderBudget.addAndGet(map.getMemory());
+                }
+            }
+        }
+    }
+
+    // true if the surfaces have already precomputed for exactly the given origins
+    private boolean isCached (Point[] origins) {
+        if (cachedOrigins == null || cachedOrigins.length != origins.length) {
+            return false;
+        }
+        for (int id = 0; id < origins.length; id++) {
+            Point p = cachedOrigins[id];
+            if (p.x != origins[id].x || p.y != origins[id].y || p.z != origins[id].z) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the surface closest to the origin of the given ray, within the interval of the given
+     * hit record.
+     *
+     * Only valid after the scene has been initialized.
+     *
+     * @return true if a hit was recorded
+     */
+    public boolean intersect (Ray ray, Hit hit) {
+        return accelerator.intersect(ray, hit);
+    }
+
+    /**
+     * Find the closest surface hit by each ray of the given packet.
+     *
+     * Only valid after the scene has been initialized.
+     */
+    public void intersect (RayPacket packet) {
+        accelerator.intersect(packet);
+    }
+
+    /**
+     * Returns true if any surface is hit by the given ray before it travels tMax. Unlike
+     * intersect, this stops at the first surface found.
+     *
+     * Rays from a light first test the surface that last blocked a ray from it on this thread,
+     * then only the surfaces listed around the light in that direction, unless there were too
+     * many to list around it.
+     *
+     * Only valid after the scene has been initialized.
+     */
+    public boolean isOccluded (Ray ray, double tMax) {
+        int id = ray.originId;
+        OccluderMap map = id > 0 && id < occluders.length() ? getOccluders(id) : null;
+        if (map == null || !map.isUsable()) {
+            return accelerator.occludes(ray, tMax);
+        }
+        // neighboring points tend to be shadowed by the same surface, so try it first
+        int[] last = lastOccluders.get();
+        if (last[id] >= 0 && map.occludes(last[id], ray, tMax)) {
+            occluderHits.increment();
+            return true;
+        }
+        occluderMisses.increment();
+        int found = map.findOccluder(ray, tMax);
+        if (found >= 0) {
+            last[id] = found;
+            return true;
+        }
+        return false;
+    }
+
+    // the occluder map of the light with the given origin id, built if it has not been yet
+    private OccluderMap getOccluders (int id) {
+        OccluderMap map = occluders.get(id);
+        if (map != null) {
+            return map;
+        }
+        synchronized (occluderLocks[id]) {
+            map = occluders.get(id);
+            if (map == null) {
+                Light light = lights.get(id - 1);
+                map = new OccluderMap(light.position, id, surfaces, occluderSpheres,
+                                      occluderBudget);
+                occluders.set(id, map);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Returns the number of shadow rays, since the scene was last initialized, found blocked by
+     * the surface that last blocked a ray from the same light on the same thread.
+     */
+    public long getOccluderCacheHits () {
+        return occluderHits.sum();
+    }
+
+    /**
+     * Returns the number of shadow rays, since the scene was last initialized, that had to be
+     * checked against all surfaces around their light.
+     */
+    public long getOccluderCacheMisses () {
+        return occluderMisses.sum();
     }
 }
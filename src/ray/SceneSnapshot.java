@@ -0,0 +1,509 @@
+package ray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ray.accel.MeshCache;
+import ray.accel.SurfaceBVH;
+import ray.math.Matrix;
+import ray.math.Point;
+import ray.math.Tuple;
+import ray.shader.Lambertian;
+import ray.shader.Phong;
+import ray.shader.Shader;
+import ray.surface.Box;
+import ray.surface.Group;
+import ray.surface.Instance;
+import ray.surface.Mesh;
+import ray.surface.Sphere;
+import ray.surface.SphereFlake;
+import ray.surface.Surface;
+import ray.surface.Triangle;
+
+/**
+ * A compact binary copy of a parsed scene, which loads much faster than its XML source since it
+ * is read back with bulk copies of primitive arrays rather than parsed.
+ *
+ * A snapshot holds, in little endian byte order after a header:
+ *  -- the camera and the light error
+ *  -- the lights, six doubles each
+ *  -- each distinct shader once, as a kind and seven doubles, followed by the scene's shaders
+ *  -- every surface, including those in groups, as a kind and a shader index, followed by the
+ *     parameters of each kind of surface in their own arrays; meshes are written with their tree
+ *     as in the MeshCache
+ *  -- the members of each group and of the scene, as indices of surfaces, followed by the groups
+ *     declared in the scene, as indices of groups
+ *  -- the hierarchy over the scene's surfaces, as written by SurfaceBVH
+ *
+ * Surfaces are put back in the same order, so a loaded scene renders exactly as the original,
+ * and its hierarchy is read back rather than built again.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class SceneSnapshot {
+    /** Identifies snapshot files, the bytes "RTSS". */
+    private static final int MAGIC = 0x52545353;
+    /** Changed whenever the layout of snapshots changes. */
+    private static final int VERSION = 3;
+
+    // kinds of shaders
+    private static final int LAMBERTIAN = 0;
+    private static final int PHONG = 1;
+    /** Parameters stored for every shader: diffuse color, specular color and exponent. */
+    private static final int SHADER_SIZE = 7;
+
+    // kinds of surfaces, and the number of doubles stored for each
+    private static final int SPHERE = 0;
+    private static final int TRIANGLE = 1;
+    private static final int BOX = 2;
+    private static final int FLAKE = 3;
+    private static final int INSTANCE = 4;
+    private static final int MESH = 5;
+    private static final int[] SURFACE_SIZE = { 4, 9, 6, 4, 12, 0 };
+
+    /** Shader index of surfaces without a shader. */
+    private static final int NO_SHADER = -1;
+
+    /**
+     * Returns true if the given file starts like a snapshot.
+     */
+    public static boolean isSnapshot (File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = new byte[4];
+            new DataInputStream(in).readFully(header);
+            return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the given scene to the given file.
+     */
+    public static void write (Scene scene, File file) throws IOException {
+        SurfaceBVH tree = scene.getAccelerator();
+        // number every surface and shader, groups before their members are needed
+        Map<Shader, Integer> shaderIds = new IdentityHashMap<>();
+        List<Shader> shaders = new ArrayList<>();
+        Map<Surface, Integer> surfaceIds = new IdentityHashMap<>();
+        List<Surface> surfaces = new ArrayList<>();
+        Map<Group, Integer> groupIds = new IdentityHashMap<>();
+        List<Group> groups = new ArrayList<>();
+        for (Shader shader : scene.getShaders()) {
+            number(shader, shaderIds, shaders);
+        }
+        for (Surface surface : scene.getSurfaces()) {
+            number(surface, surfaceIds, surfaces, shaderIds, shaders, groupIds, groups);
+        }
+        for (Group group : scene.getGroups()) {
+            number(group, surfaceIds, surfaces, shaderIds, shaders, groupIds, groups);
+        }
+
+        // parameters of each kind of surface, in the order of the surfaces
+        int[] kinds = new int[surfaces.size()];
+        int[] surfaceShaders = new int[surfaces.size()];
+        int[] counts = new int[SURFACE_SIZE.length];
+        for (int i = 0; i < surfaces.size(); i++) {
+            Surface s = surfaces.get(i);
+            kinds[i] = kind(s);
+            surfaceShaders[i] = s.getShader() == null ? NO_SHADER : shaderIds.get(s.getShader());
+            counts[kinds[i]]++;
+        }
+        double[][] parameters = new double[SURFACE_SIZE.length][];
+        for (int kind = 0; kind < parameters.length; kind++) {
+            parameters[kind] = new double[SURFACE_SIZE[kind] * counts[kind]];
+        }
+        int[] depths = new int[counts[FLAKE]];
+        int[] instanceGroups = new int[counts[INSTANCE]];
+        List<Mesh> meshes = new ArrayList<>();
+        int[] next = new int[SURFACE_SIZE.length];
+        for (Surface s : surfaces) {
+            int kind = kind(s);
+            int k = next[kind]++;
+            double[] p = parameters[kind];
+            int offset = SURFACE_SIZE[kind] * k;
+            switch (kind) {
+            case SPHERE:
+                Sphere sphere = (Sphere)s;
+                put(p, offset, sphere.getCenter());
+                p[offset + 3] = sphere.getRadius();
+                break;
+            case TRIANGLE:
+                Triangle triangle = (Triangle)s;
+                put(p, offset, triangle.getA());
+                put(p, offset + 3, triangle.getB());
+                put(p, offset + 6, triangle.getC());
+                break;
+            case BOX:
+                Box box = (Box)s;
+                put(p, offset, box.getMinPt());
+                put(p, offset + 3, box.getMaxPt());
+                break;
+            case FLAKE:
+                SphereFlake flake = (SphereFlake)s;
+                put(p, offset, flake.getCenter());
+                p[offset + 3] = flake.getRadius();
+                depths[k] = flake.getDepth();
+                break;
+            case INSTANCE:
+                Instance instance = (Instance)s;
+                System.arraycopy(instance.getTransform().getEntries(), 0, p, offset, 12);
+                instanceGroups[k] = groupIds.get(instance.getGroup());
+                break;
+            default:
+                meshes.add((Mesh)s);
+            }
+        }
+
+        // then lay it all out
+        Camera camera = scene.getCamera();
+        List<Light> lights = scene.getLights();
+        long size = 4 * 2 + 8 * 16 + 4 + 8 * 6 * lights.size() +
+                    4 + 4 * shaders.size() + 8 * SHADER_SIZE * shaders.size() +
+                    4 + 4 * scene.getShaders().size() +
+                    4 + 4 * 2 * surfaces.size() + 4 * counts.length +
+                    4 * (depths.length + instanceGroups.length);
+        for (double[] p : parameters) {
+            size += 8 * p.length;
+        }
+        for (Mesh mesh : meshes) {
+            size += MeshCache.size(mesh);
+        }
+        size += 4;
+        for (Group group : groups) {
+            size += 4 + 4 * group.getSurfaces().size();
+        }
+        size += 4 + 4 * scene.getSurfaces().size() + 4 + 4 * scene.getGroups().size();
+        size += tree.getWrittenSize();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Scene too large for a snapshot");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        put(buffer, camera.viewPoint);
+        put(buffer, camera.viewDir);
+        put(buffer, camera.viewUp);
+        put(buffer, camera.projNormal);
+        buffer.putDouble(camera.viewWidth).putDouble(camera.viewHeight);
+        buffer.putDouble(camera.projDistance).putDouble(scene.getLightError());
+        buffer.putInt(lights.size());
+        for (Light light : lights) {
+            put(buffer, light.position);
+            put(buffer, light.color);
+        }
+        buffer.putInt(shaders.size());
+        for (Shader shader : shaders) {
+            buffer.putInt(shader instanceof Phong ? PHONG : LAMBERTIAN);
+        }
+        for (Shader shader : shaders) {
+            put(buffer, ((Lambertian)shader).getDiffuseColor());
+            if (shader instanceof Phong) {
+                Phong phong = (Phong)shader;
+                put(buffer, phong.getSpecularColor());
+                buffer.putDouble(phong.getExponent());
+            } else {
+                buffer.putDouble(0).putDouble(0).putDouble(0).putDouble(0);
+            }
+        }
+        int[] sceneShaders = new int[scene.getShaders().size()];
+        for (int i = 0; i < sceneShaders.length; i++) {
+            sceneShaders[i] = shaderIds.get(scene.getShaders().get(i));
+        }
+        putInts(buffer, sceneShaders);
+        putInts(buffer, kinds);
+        buffer.asIntBuffer().put(surfaceShaders);
+        buffer.position(buffer.position() + 4 * surfaceShaders.length);
+        for (int kind = 0; kind < counts.length; kind++) {
+            buffer.putInt(counts[kind]);
+        }
+        for (double[] p : parameters) {
+            buffer.asDoubleBuffer().put(p);
+            buffer.position(buffer.position() + 8 * p.length);
+        }
+        buffer.asIntBuffer().put(depths).put(instanceGroups);
+        buffer.position(buffer.position() + 4 * (depths.length + instanceGroups.length));
+        for (Mesh mesh : meshes) {
+            MeshCache.write(mesh, buffer);
+        }
+        buffer.putInt(groups.size());
+        for (Group group : groups) {
+            putInts(buffer, ids(group.getSurfaces(), surfaceIds));
+        }
+        putInts(buffer, ids(scene.getSurfaces(), surfaceIds));
+        putInts(buffer, ids(scene.getGroups(), groupIds));
+        tree.write(buffer);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Read back a scene written to the given file.
+     */
+    public static Scene read (File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a scene snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a snapshot of version " + version +
+                                      ", not " + VERSION);
+            }
+            Scene scene = new Scene();
+            Camera camera = new Camera();
+            get(buffer, camera.viewPoint);
+            get(buffer, camera.viewDir);
+            get(buffer, camera.viewUp);
+            get(buffer, camera.projNormal);
+            camera.viewWidth = buffer.getDouble();
+            camera.viewHeight = buffer.getDouble();
+            camera.projDistance = buffer.getDouble();
+            scene.setCamera(camera);
+            scene.setLightError(buffer.getDouble());
+            double[] lights = getDoubles(buffer, 6 * buffer.getInt());
+            for (int i = 0; i < lights.length; i += 6) {
+                Light light = new Light();
+                light.position.set(lights[i], lights[i + 1], lights[i + 2]);
+                light.color.set(lights[i + 3], lights[i + 4], lights[i + 5]);
+                scene.addLight(light);
+            }
+
+            int[] shaderKinds = getInts(buffer, buffer.getInt());
+            double[] shaderParameters = getDoubles(buffer, SHADER_SIZE * shaderKinds.length);
+            Shader[] shaders = new Shader[shaderKinds.length];
+            for (int i = 0; i < shaders.length; i++) {
+                double[] p = shaderParameters;
+                int offset = SHADER_SIZE * i;
+                Lambertian shader = shaderKinds[i] == PHONG ? new Phong() : new Lambertian();
+                shader.getDiffuseColor().set(p[offset], p[offset + 1], p[offset + 2]);
+                if (shader instanceof Phong) {
+                    Phong phong = (Phong)shader;
+                    phong.getSpecularColor().set(p[offset + 3], p[offset + 4], p[offset + 5]);
+                    phong.setExponent(p[offset + 6]);
+                }
+                shaders[i] = shader;
+            }
+            for (int id : getInts(buffer, buffer.getInt())) {
+                scene.addShader(shaders[id]);
+            }
+
+            int[] kinds = getInts(buffer, buffer.getInt());
+            int[] surfaceShaders = getInts(buffer, kinds.length);
+            int[] counts = getInts(buffer, SURFACE_SIZE.length);
+            double[][] parameters = new double[SURFACE_SIZE.length][];
+            for (int kind = 0; kind < parameters.length; kind++) {
+                parameters[kind] = getDoubles(buffer, SURFACE_SIZE[kind] * counts[kind]);
+            }
+            int[] depths = getInts(buffer, counts[FLAKE]);
+            int[] instanceGroups = getInts(buffer, counts[INSTANCE]);
+            Surface[] surfaces = new Surface[kinds.length];
+            List<Instance> instances = new ArrayList<>();
+            int[] next = new int[SURFACE_SIZE.length];
+            for (int i = 0; i < surfaces.length; i++) {
+                int kind = kinds[i];
+                int k = next[kind]++;
+                double[] p = parameters[kind];
+                int offset = SURFACE_SIZE[kind] * k;
+                switch (kind) {
+                case SPHERE:
+                    Sphere sphere = new Sphere();
+                    sphere.setCenter(point(p, offset));
+                    sphere.setRadius(p[offset + 3]);
+                    surfaces[i] = sphere;
+                    break;
+                case TRIANGLE:
+                    Triangle triangle = new Triangle();
+                    triangle.setA(point(p, offset));
+                    triangle.setB(point(p, offset + 3));
+                    triangle.setC(point(p, offset + 6));
+                    surfaces[i] = triangle;
+                    break;
+                case BOX:
+                    Box box = new Box();
+                    box.setMinPt(point(p, offset));
+                    box.setMaxPt(point(p, offset + 3));
+                    surfaces[i] = box;
+                    break;
+                case FLAKE:
+                    SphereFlake flake = new SphereFlake();
+                    flake.setCenter(point(p, offset));
+                    flake.setRadius(p[offset + 3]);
+                    flake.setDepth(depths[k]);
+                    surfaces[i] = flake;
+                    break;
+                case INSTANCE:
+                    Instance instance = new Instance();
+                    double[] entries = new double[12];
+                    System.arraycopy(p, offset, entries, 0, entries.length);
+                    instance.transform(new Matrix(entries));
+                    instances.add(instance);
+                    surfaces[i] = instance;
+                    break;
+                case MESH:
+                    // the mesh data follows all the other parameters, in order
+                    surfaces[i] = new Mesh();
+                    break;
+                default:
+                    throw new IOException("Unknown kind of surface " + kind + " in " + file);
+                }
+                surfaces[i].setShader(surfaceShaders[i] == NO_SHADER ? null
+                                                                     : shaders[surfaceShaders[i]]);
+            }
+            for (int i = 0; i < surfaces.length; i++) {
+                if (kinds[i] == MESH) {
+                    MeshCache.read(buffer, (Mesh)surfaces[i]);
+                }
+            }
+            Group[] groups = new Group[buffer.getInt()];
+            for (int g = 0; g < groups.length; g++) {
+                groups[g] = new Group();
+                for (int id : getInts(buffer, buffer.getInt())) {
+                    groups[g].addSurface(surfaces[id]);
+                }
+            }
+            for (int k = 0; k < instances.size(); k++) {
+                instances.get(k).setGroup(groups[instanceGroups[k]]);
+            }
+            for (int id : getInts(buffer, buffer.getInt())) {
+                scene.addSurface(surfaces[id]);
+            }
+            for (int id : getInts(buffer, buffer.getInt())) {
+                scene.addGroup(groups[id]);
+            }
+            scene.useAccelerator(SurfaceBVH.read(buffer, scene.getSurfaces()));
+            return scene;
+        }
+    }
+
+    // number the shader if it has not been yet
+    private static void number (Shader shader, Map<Shader, Integer> ids, List<Shader> shaders) {
+        if (shader == null || ids.containsKey(shader)) {
+            return;
+        }
+        if (shader.getClass() != Lambertian.class && shader.getClass() != Phong.class) {
+            throw new Error("Cannot snapshot shaders of type " + shader.getClass().getName());
+        }
+        ids.put(shader, shaders.size());
+        shaders.add(shader);
+    }
+
+    // number the surface, its shader and, for an instance, its group and all its members
+    private static void number (Surface surface, Map<Surface, Integer> ids, List<Surface> surfaces,
+                                Map<Shader, Integer> shaderIds, List<Shader> shaders,
+                                Map<Group, Integer> groupIds, List<Group> groups) {
+        if (ids.containsKey(surface)) {
+            return;
+        }
+        kind(surface);
+        ids.put(surface, surfaces.size());
+        surfaces.add(surface);
+        number(surface.getShader(), shaderIds, shaders);
+        if (surface instanceof Instance) {
+            number(((Instance)surface).getGroup(), ids, surfaces, shaderIds, shaders, groupIds,
+                   groups);
+        }
+    }
+
+    // number the group and all its members if it has not been yet
+    private static void number (Group group, Map<Surface, Integer> ids, List<Surface> surfaces,
+                                Map<Shader, Integer> shaderIds, List<Shader> shaders,
+                                Map<Group, Integer> groupIds, List<Group> groups) {
+        if (groupIds.containsKey(group)) {
+            return;
+        }
+        groupIds.put(group, groups.size());
+        groups.add(group);
+        for (Surface member : group.getSurfaces()) {
+            number(member, ids, surfaces, shaderIds, shaders, groupIds, groups);
+        }
+    }
+
+    private static int kind (Surface s) {
+        Class<?> c = s.getClass();
+        if (c == Sphere.class) {
+            return SPHERE;
+        } else if (c == Triangle.class) {
+            return TRIANGLE;
+        } else if (c == Box.class) {
+            return BOX;
+        } else if (c == SphereFlake.class) {
+            return FLAKE;
+        } else if (c == Instance.class) {
+            return INSTANCE;
+        } else if (c == Mesh.class) {
+            return MESH;
+        }
+        throw new Error("Cannot snapshot surfaces of type " + c.getName());
+    }
+
+    // indices of the given surfaces
+    private static <T> int[] ids (List<T> items, Map<T, Integer> ids) {
+        int[] result = new int[items.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(items.get(i));
+        }
+        return result;
+    }
+
+    private static void put (double[] p, int offset, Tuple t) {
+        p[offset] = t.x;
+        p[offset + 1] = t.y;
+        p[offset + 2] = t.z;
+    }
+
+    private static Point point (double[] p, int offset) {
+        return new Point(p[offset], p[offset + 1], p[offset + 2]);
+    }
+
+    private static void put (ByteBuffer buffer, Tuple t) {
+        buffer.putDouble(t.x).putDouble(t.y).putDouble(t.z);
+    }
+
+    private static void get (ByteBuffer buffer, Tuple t) {
+        t.x = buffer.getDouble();
+        t.y = buffer.getDouble();
+        t.z = buffer.getDouble();
+    }
+
+    // an array preceded by its length
+    private static void putInts (ByteBuffer buffer, int[] values) {
+        buffer.putInt(values.length);
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static int[] getInts (ByteBuffer buffer, int n) {
+        int[] result = new int[n];
+        buffer.asIntBuffer().get(result);
+        buffer.position(buffer.position() + 4 * n);
+        return result;
+    }
+
+    private static double[] getDoubles (ByteBuffer buffer, int n) {
+        double[] result = new double[n];
+        buffer.asDoubleBuffer().get(result);
+        buffer.position(buffer.position() + 8 * n);
+        return result;
+    }
+}
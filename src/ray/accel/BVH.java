@@ -0,0 +1,441 @@
+package ray.accel;
+
+import java.util.Arrays;
+
+import ray.math.BoundingBox;
+import ray.math.Ray;
+import ray.surface.Hit;
+
+/**
+ * A bounding volume hierarchy over an indexed collection of primitives, built with the surface
+ * area heuristic (SAH).
+ *
+ * The tree is kept in flat arrays instead of node objects. Node i stores its box in
+ * bounds[6i .. 6i+5] (min x, y, z then max x, y, z). A leaf has count[i] > 0 and lists the
+ * primitives order[first[i]] through order[first[i] + count[i] - 1]. An inner node has
+ * count[i] == 0 and its two children are stored next to each other starting at first[i]. The root
+ * is node 0.
+ *
+ * Subclasses decide what a primitive is by implementing intersectPrimitive.
+ *
+ * @author Eli Williams (erw19)
+ */
+public abstract class BVH {
+    /** Number of bins used to evaluate candidate splits along each axis. */
+    private static final int NUM_BINS = 16;
+    /** Leaves with more primitives than this are always split when possible. */
+    private static final int MAX_LEAF_SIZE = 4;
+    /** Nodes this deep are turned into leaves no matter how many primitives they hold. */
+    private static final int MAX_DEPTH = 64;
+    /** Cost of visiting an inner node, relative to intersecting one primitive. */
+    private static final double TRAVERSAL_COST = 0.5;
+
+    /** Node boxes, six values per node. */
+    protected double[] bounds;
+    /** First primitive of a leaf, or first child of an inner node. */
+    protected int[] first;
+    /** Number of primitives in a leaf, 0 for inner nodes. */
+    protected int[] count;
+    /** Primitive indices in leaf order. */
+    protected int[] order;
+    /** Number of nodes in use. */
+    protected int numNodes;
+    /** Tests boxes, and any spheres, against several rays at once. */
+    protected final SphereKernel kernel = SphereKernel.get();
+
+    // Only needed while building
+    private double[] primBounds;
+    private double[] centroids;
+
+    /**
+     * Build the tree over the given primitive boxes.
+     *
+     * @param boxes six values per primitive (min x, y, z then max x, y, z)
+     * @param numPrims the number of primitives
+     */
+    protected void build (double[] boxes, int numPrims) {
+        primBounds = boxes;
+        centroids = new double[3 * numPrims];
+        order = new int[numPrims];
+        for (int i = 0; i < numPrims; i++) {
+            order[i] = i;
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[3 * i + axis] = 0.5 * (boxes[6 * i + axis] + boxes[6 * i + axis + 3]);
+            }
+        }
+        int maxNodes = Math.max(1, 2 * numPrims - 1);
+        bounds = new double[6 * maxNodes];
+        first = new int[maxNodes];
+        count = new int[maxNodes];
+        numNodes = 1;
+        if (numPrims > 0) {
+            buildNode(0, 0, numPrims, 0);
+        }
+        primBounds = null;
+        centroids = null;
+        // leaves usually hold several primitives, so far fewer nodes are used than allocated
+        bounds = Arrays.copyOf(bounds, 6 * numNodes);
+        first = Arrays.copyOf(first, numNodes);
+        count = Arrays.copyOf(count, numNodes);
+    }
+
+    /**
+     * Returns the box of the root, which contains every primitive.
+     */
+    public BoundingBox getBounds () {
+        BoundingBox result = new BoundingBox();
+        if (order.length > 0) {
+            result.min.set(bounds[0], bounds[1], bounds[2]);
+            result.max.set(bounds[3], bounds[4], bounds[5]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of primitives in the tree.
+     */
+    public int size () {
+        return order.length;
+    }
+
+    /**
+     * Fill in the given node so that it covers order[start .. end).
+     */
+    private void buildNode (int node, int start, int end, int depth) {
+        // bounds of the primitives and of their centroids
+        double[] cmin = new double[3];
+        double[] cmax = new double[3];
+        int b = 6 * node;
+        emptyBox(bounds, b);
+        Arrays.fill(cmin, Double.POSITIVE_INFINITY);
+        Arrays.fill(cmax, Double.NEGATIVE_INFINITY);
+        for (int i = start; i < end; i++) {
+            int prim = order[i];
+            growBox(bounds, b, primBounds, 6 * prim);
+            for (int axis = 0; axis < 3; axis++) {
+                cmin[axis] = Math.min(cmin[axis], centroids[3 * prim + axis]);
+                cmax[axis] = Math.max(cmax[axis], centroids[3 * prim + axis]);
+            }
+        }
+        int n = end - start;
+        first[node] = start;
+        count[node] = n;
+        if (n <= 1 || depth >= MAX_DEPTH) {
+            return;
+        }
+
+        // find the cheapest binned split over all three axes
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        int bestSplit = -1;
+        int[] binCount = new int[NUM_BINS];
+        double[] binBounds = new double[6 * NUM_BINS];
+        double[] rightArea = new double[NUM_BINS];
+        int[] rightCount = new int[NUM_BINS];
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = cmax[axis] - cmin[axis];
+            if (extent <= 0) {
+                continue;
+            }
+            Arrays.fill(binCount, 0);
+            for (int k = 0; k < NUM_BINS; k++) {
+                emptyBox(binBounds, 6 * k);
+            }
+            for (int i = start; i < end; i++) {
+                int prim = order[i];
+                int bin = binIndex(centroids[3 * prim + axis], cmin[axis], extent);
+                binCount[bin]++;
+                growBox(binBounds, 6 * bin, primBounds, 6 * prim);
+            }
+            // sweep from the right to get areas of every right hand side
+            double[] box = new double[6];
+            emptyBox(box, 0);
+            int sum = 0;
+            for (int k = NUM_BINS - 1; k > 0; k--) {
+                growBox(box, 0, binBounds, 6 * k);
+                sum += binCount[k];
+                rightArea[k] = area(box, 0);
+                rightCount[k] = sum;
+            }
+            // then from the left, evaluating the split in front of bin k
+            emptyBox(box, 0);
+            sum = 0;
+            for (int k = 1; k < NUM_BINS; k++) {
+                growBox(box, 0, binBounds, 6 * (k - 1));
+                sum += binCount[k - 1];
+                if (sum == 0 || rightCount[k] == 0) {
+                    continue;
+                }
+                double cost = area(box, 0) * sum + rightArea[k] * rightCount[k];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = k;
+                }
+            }
+        }
+        // all centroids coincide, nothing sensible to split
+        if (bestAxis < 0) {
+            return;
+        }
+        double nodeArea = area(bounds, b);
+        bestCost += TRAVERSAL_COST * nodeArea;
+        if (n <= MAX_LEAF_SIZE && bestCost >= n * nodeArea) {
+            return;
+        }
+
+        // partition primitives in place around the chosen split
+        double extent = cmax[bestAxis] - cmin[bestAxis];
+        int mid = start;
+        for (int i = start; i < end; i++) {
+            int prim = order[i];
+            if (binIndex(centroids[3 * prim + bestAxis], cmin[bestAxis], extent) < bestSplit) {
+                order[i] = order[mid];
+                order[mid] = prim;
+                mid++;
+            }
+        }
+        int left = numNodes;
+        numNodes += 2;
+        first[node] = left;
+        count[node] = 0;
+        buildNode(left, start, mid, depth + 1);
+        buildNode(left + 1, mid, end, depth + 1);
+    }
+
+    private static int binIndex (double centroid, double min, double extent) {
+        return Math.min(NUM_BINS - 1, (int)((centroid - min) * NUM_BINS / extent));
+    }
+
+    private static void emptyBox (double[] box, int b) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[b + axis] = Double.POSITIVE_INFINITY;
+            box[b + axis + 3] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void growBox (double[] box, int b, double[] other, int o) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[b + axis] = Math.min(box[b + axis], other[o + axis]);
+            box[b + axis + 3] = Math.max(box[b + axis + 3], other[o + axis + 3]);
+        }
+    }
+
+    private static double area (double[] box, int b) {
+        double dx = box[b + 3] - box[b];
+        double dy = box[b + 4] - box[b + 1];
+        double dz = box[b + 5] - box[b + 2];
+        if (dx < 0 || dy < 0 || dz < 0) {
+            return 0;
+        }
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Finds the closest primitive hit by the given ray inside the interval of the hit record.
+     *
+     * @return true if a closer hit was recorded
+     */
+    public boolean intersect (Ray ray, Hit hit) {
+        if (order.length == 0) {
+            return false;
+        }
+        double ox = ray.getOrigin().x;
+        double oy = ray.getOrigin().y;
+        double oz = ray.getOrigin().z;
+        double ix = 1 / ray.direction.x;
+        double iy = 1 / ray.direction.y;
+        double iz = 1 / ray.direction.z;
+        if (enter(0, ox, oy, oz, ix, iy, iz, hit.tMax) == Double.POSITIVE_INFINITY) {
+            return false;
+        }
+        return intersect(0, ray, ox, oy, oz, ix, iy, iz, hit);
+    }
+
+    private boolean intersect (int node, Ray ray, double ox, double oy, double oz,
+                               double ix, double iy, double iz, Hit hit) {
+        int n = count[node];
+        if (n > 0) {
+            return intersectLeaf(first[node], first[node] + n, ray, hit);
+        }
+        // visit the nearer child first so the farther one can often be skipped
+        int near = first[node];
+        int far = near + 1;
+        double tNear = enter(near, ox, oy, oz, ix, iy, iz, hit.tMax);
+        double tFar = enter(far, ox, oy, oz, ix, iy, iz, hit.tMax);
+        if (tFar < tNear) {
+            int swap = near;
+            near = far;
+            far = swap;
+            double t = tNear;
+            tNear = tFar;
+            tFar = t;
+        }
+        boolean found = false;
+        if (tNear < hit.tMax) {
+            found = intersect(near, ray, ox, oy, oz, ix, iy, iz, hit);
+        }
+        if (tFar < hit.tMax) {
+            found |= intersect(far, ray, ox, oy, oz, ix, iy, iz, hit);
+        }
+        return found;
+    }
+
+    /**
+     * Finds the closest primitive hit by each ray of the packet.
+     *
+     * Nodes are skipped as a whole when they are outside the packet's frustum, beyond the
+     * furthest hit of the packet, or missed by every one of its rays.
+     */
+    public void intersect (RayPacket packet) {
+        if (order.length > 0 && packet.size > 0) {
+            intersect(0, packet, packet.getMaxDistance());
+        }
+    }
+
+    // returns the furthest hit of the packet after visiting the node
+    private double intersect (int node, RayPacket packet, double maxDistance) {
+        int b = 6 * node;
+        if (!packet.mayHit(bounds[b], bounds[b + 1], bounds[b + 2],
+                           bounds[b + 3], bounds[b + 4], bounds[b + 5], maxDistance) ||
+            !anyEnters(node, packet)) {
+            return maxDistance;
+        }
+        int n = count[node];
+        if (n > 0) {
+            intersectLeaf(first[node], first[node] + n, packet);
+            return packet.getMaxDistance();
+        }
+        // visit first the child whose center is further back along the packet's rays
+        int near = first[node];
+        int far = near + 1;
+        if (depth(far, packet) < depth(near, packet)) {
+            near = far;
+            far = first[node];
+        }
+        maxDistance = intersect(near, packet, maxDistance);
+        return intersect(far, packet, maxDistance);
+    }
+
+    // true if at least one ray of the packet enters the box of the given node
+    private boolean anyEnters (int node, RayPacket packet) {
+        return kernel.anyEnters(bounds, 6 * node, packet);
+    }
+
+    // distance of the node's center along the first ray of the packet
+    private double depth (int node, RayPacket packet) {
+        int b = 6 * node;
+        return (0.5 * (bounds[b] + bounds[b + 3]) - packet.ox) * packet.dx[0] +
+               (0.5 * (bounds[b + 1] + bounds[b + 4]) - packet.oy) * packet.dy[0] +
+               (0.5 * (bounds[b + 2] + bounds[b + 5]) - packet.oz) * packet.dz[0];
+    }
+
+    /**
+     * Returns true if the ray hits any primitive before tMax. Stops at the first such primitive,
+     * which is not necessarily the closest one.
+     */
+    public boolean occludes (Ray ray, double tMax) {
+        if (order.length == 0) {
+            return false;
+        }
+        double ox = ray.getOrigin().x;
+        double oy = ray.getOrigin().y;
+        double oz = ray.getOrigin().z;
+        double ix = 1 / ray.direction.x;
+        double iy = 1 / ray.direction.y;
+        double iz = 1 / ray.direction.z;
+        return occludes(0, ray, ox, oy, oz, ix, iy, iz, tMax);
+    }
+
+    private boolean occludes (int node, Ray ray, double ox, double oy, double oz,
+                              double ix, double iy, double iz, double tMax) {
+        if (enter(node, ox, oy, oz, ix, iy, iz, tMax) == Double.POSITIVE_INFINITY) {
+            return false;
+        }
+        int n = count[node];
+        if (n > 0) {
+            return occludesLeaf(first[node], first[node] + n, ray, tMax);
+        }
+        return occludes(first[node], ray, ox, oy, oz, ix, iy, iz, tMax) ||
+               occludes(first[node] + 1, ray, ox, oy, oz, ix, iy, iz, tMax);
+    }
+
+    /**
+     * Slab test against the box of the given node.
+     *
+     * @return the distance at which the ray enters the box, or infinity if it misses the box
+     *         or only reaches it beyond tMax
+     */
+    private double enter (int node, double ox, double oy, double oz,
+                          double ix, double iy, double iz, double tMax) {
+        return BoundingBox.enter(bounds, 6 * node, ox, oy, oz, ix, iy, iz, 0, tMax);
+    }
+
+    /**
+     * Intersects the ray with the primitives of a leaf, order[start] through order[end - 1].
+     * By default they are tested one at a time with intersectPrimitive.
+     *
+     * @return true if a closer hit was recorded
+     */
+    protected boolean intersectLeaf (int start, int end, Ray ray, Hit hit) {
+        boolean found = false;
+        for (int i = start; i < end; i++) {
+            found |= intersectPrimitive(order[i], ray, hit);
+        }
+        return found;
+    }
+
+    /**
+     * Intersects every ray of the packet with the primitives of a leaf, order[start] through
+     * order[end - 1], recording closer hits in the packet. By default they are tested one at a
+     * time with intersectPrimitive.
+     */
+    protected void intersectLeaf (int start, int end, RayPacket packet) {
+        for (int i = start; i < end; i++) {
+            intersectPrimitive(order[i], packet);
+        }
+    }
+
+    /**
+     * Returns true if the ray hits one of the primitives of a leaf, order[start] through
+     * order[end - 1], between Ray.EPSILON and tMax.
+     */
+    protected boolean occludesLeaf (int start, int end, Ray ray, double tMax) {
+        for (int i = start; i < end; i++) {
+            if (occludesPrimitive(order[i], ray, tMax)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Intersects the ray with the given primitive, recording the hit if it is closer than any
+     * found so far.
+     *
+     * @param index the index of the primitive, as given to build
+     * @param ray the ray being traced
+     * @param hit the closest hit found so far
+     * @return true if a closer hit was recorded
+     */
+    protected abstract boolean intersectPrimitive (int index, Ray ray, Hit hit);
+
+    /**
+     * Intersects every ray of the packet with the given primitive, recording closer hits in the
+     * packet. By default the rays are tested one at a time with intersectPrimitive.
+     */
+    protected void intersectPrimitive (int index, RayPacket packet) {
+        Hit hit = packet.scratch;
+        for (int i = 0; i < packet.size; i++) {
+            packet.getHit(i, hit);
+            if (intersectPrimitive(index, packet.rays[i], hit)) {
+                packet.setHit(i, hit);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the ray hits the given primitive between Ray.EPSILON and tMax.
+     */
+    protected abstract boolean occludesPrimitive (int index, Ray ray, double tMax);
+}
@@ -0,0 +1,50 @@
+package ray.accel;
+
+import ray.math.Ray;
+import ray.surface.Hit;
+import ray.surface.Mesh;
+
+/**
+ * A bounding volume hierarchy whose primitives are the triangles of a mesh.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class MeshBVH extends BVH {
+    /** The mesh, whose triangle indices are the primitive indices of the tree. */
+    private final Mesh mesh;
+
+    /**
+     * Build a hierarchy over the triangles of the given mesh.
+     */
+    public MeshBVH (Mesh mesh) {
+        this.mesh = mesh;
+        int n = mesh.getNumTriangles();
+        double[] boxes = new double[6 * n];
+        for (int i = 0; i < n; i++) {
+            mesh.getTriangleBounds(i, boxes, 6 * i);
+        }
+        build(boxes, n);
+    }
+
+    /**
+     * Restore a hierarchy over the triangles of the given mesh that was built before.
+     */
+    MeshBVH (Mesh mesh, double[] bounds, int[] first, int[] count, int[] order) {
+        this.mesh = mesh;
+        this.bounds = bounds;
+        this.first = first;
+        this.count = count;
+        this.order = order;
+        numNodes = count.length;
+    }
+
+    @Override
+    protected boolean intersectPrimitive (int index, Ray ray, Hit hit) {
+        return mesh.intersectTriangle(index, ray, hit);
+    }
+
+    @Override
+    protected boolean occludesPrimitive (int index, Ray ray, double tMax) {
+        return mesh.occludesTriangle(index, ray, tMax);
+    }
+}
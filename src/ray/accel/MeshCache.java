@@ -0,0 +1,275 @@
+package ray.accel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import ray.surface.Mesh;
+
+/**
+ * Binary cache of loaded meshes, so that a mesh file only has to be parsed and have its tree
+ * built the first time it is used.
+ *
+ * Each cached mesh is a file named after the SHA-256 hash of the contents of its source, so an
+ * edited source simply misses the cache. It holds, in native byte order, a header followed by
+ * the vertices and node boxes as doubles and the triangles, node first, count and order arrays
+ * as ints. It is read back through a memory mapping with bulk copies, without any parsing.
+ *
+ * Cached meshes are kept in the directory given by the system property ray.meshCache, by
+ * default raytracer-cache in the temporary directory; setting it to the empty string turns the
+ * cache off.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class MeshCache {
+    /** Identifies cache files, and reads differently in the other byte order. */
+    private static final int MAGIC = 0x5254534d;
+    /** Changed whenever the layout of cache files changes. */
+    private static final int VERSION = 1;
+    /** Magic and version, found only at the start of cache files. */
+    private static final int FILE_HEADER_SIZE = 2 * 4;
+    /** The lengths of the arrays, then padding to align the doubles. */
+    private static final int BLOCK_HEADER_SIZE = 6 * 4;
+
+    /** The cache file for the source. */
+    private final File file;
+
+    /**
+     * Find the cache file for the given source, hashing its contents.
+     */
+    public MeshCache (File source) throws IOException {
+        file = new File(getDirectory(), hash(source) + ".mesh");
+    }
+
+    /**
+     * Returns the directory of cached meshes, or null if caching is off.
+     */
+    public static File getDirectory () {
+        String directory = System.getProperty("ray.meshCache",
+            new File(System.getProperty("java.io.tmpdir"), "raytracer-cache").getPath());
+        return directory.isEmpty() ? null : new File(directory);
+    }
+
+    /**
+     * Give the mesh the cached geometry and tree, if its source has been cached.
+     *
+     * @return true if the mesh was loaded from the cache
+     */
+    public boolean load (Mesh mesh) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (channel.size() < FILE_HEADER_SIZE + BLOCK_HEADER_SIZE ||
+                buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            buffer.mark();
+            long size = FILE_HEADER_SIZE + size(buffer.getInt(), buffer.getInt(),
+                                                buffer.getInt(), buffer.getInt());
+            if (size != channel.size()) {
+                return false;
+            }
+            buffer.reset();
+            read(buffer, mesh);
+            return true;
+        } catch (IOException | RuntimeException | InternalError e) {
+            // a damaged file is only a cache miss, and is replaced when the mesh is stored; the
+            // JVM reports a file truncated while mapped as an InternalError
+            System.err.println("Could not read cached mesh " + file + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Save the geometry and tree of the mesh as the cached version of its source.
+     */
+    public void store (Mesh mesh) {
+        long size = FILE_HEADER_SIZE + size(mesh);
+        File temp = null;
+        try {
+            file.getParentFile().mkdirs();
+            // written under another name first, so that no one ever maps a partial file
+            temp = File.createTempFile("mesh", ".tmp", file.getParentFile());
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.nativeOrder());
+                buffer.putInt(MAGIC).putInt(VERSION);
+                write(mesh, buffer);
+                buffer.force();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not cache mesh in " + file + ": " + e);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes write takes for the given mesh.
+     */
+    public static long size (Mesh mesh) {
+        MeshBVH tree = mesh.getTree();
+        return size(mesh.getVertices().length, tree.count.length, mesh.getTriangles().length,
+                    tree.order.length);
+    }
+
+    /**
+     * Write the geometry and tree of the mesh at the position of the buffer: the lengths of the
+     * arrays, then the vertices and node boxes as doubles, then the triangles, node first, count
+     * and order arrays as ints. Used for cache files and scene snapshots alike.
+     */
+    public static void write (Mesh mesh, ByteBuffer buffer) {
+        MeshBVH tree = mesh.getTree();
+        double[] vertices = mesh.getVertices();
+        int[] triangles = mesh.getTriangles();
+        buffer.putInt(vertices.length).putInt(tree.count.length);
+        buffer.putInt(triangles.length).putInt(tree.order.length);
+        buffer.putLong(0);
+        putDoubles(buffer, vertices);
+        putDoubles(buffer, tree.bounds);
+        putInts(buffer, triangles);
+        putInts(buffer, tree.first);
+        putInts(buffer, tree.count);
+        putInts(buffer, tree.order);
+    }
+
+    /**
+     * Give the mesh the geometry and tree written by write at the position of the buffer.
+     *
+     * @throws IOException if the lengths do not fit in the buffer or the arrays do not make a
+     *         mesh and a tree over its triangles
+     */
+    public static void read (ByteBuffer buffer, Mesh mesh) throws IOException {
+        int numCoordinates = buffer.getInt();
+        int numNodes = buffer.getInt();
+        int numIndices = buffer.getInt();
+        int numPrims = buffer.getInt();
+        buffer.getLong();
+        if (numCoordinates < 0 || numNodes < 1 || numIndices < 0 || numPrims < 0 ||
+            size(numCoordinates, numNodes, numIndices, numPrims) - BLOCK_HEADER_SIZE >
+            buffer.remaining()) {
+            throw new IOException("Mesh array lengths out of range");
+        }
+        if (numCoordinates % 3 != 0 || numIndices != 3 * numPrims) {
+            throw new IOException("Mesh arrays do not hold whole vertices and triangles");
+        }
+        double[] vertices = getDoubles(buffer, numCoordinates);
+        double[] bounds = getDoubles(buffer, 6 * numNodes);
+        int[] triangles = getInts(buffer, numIndices);
+        int[] first = getInts(buffer, numNodes);
+        int[] count = getInts(buffer, numNodes);
+        int[] order = getInts(buffer, numPrims);
+        for (int index : triangles) {
+            if (index < 0 || index >= numCoordinates / 3) {
+                throw new IOException("Mesh vertex index out of range: " + index);
+            }
+        }
+        checkTree(first, count, order);
+        mesh.setGeometry(vertices, triangles, new MeshBVH(mesh, bounds, first, count, order));
+    }
+
+    /**
+     * Make sure the arrays read for a tree can be traversed: every primitive listed exists, every
+     * leaf lists primitives of the order array, and the children of every inner node are stored
+     * after it, so that traversal always ends.
+     *
+     * @throws IOException if they cannot
+     */
+    static void checkTree (int[] first, int[] count, int[] order) throws IOException {
+        int numNodes = count.length;
+        int numPrims = order.length;
+        if (first.length != numNodes || numNodes < 1) {
+            throw new IOException("Tree has " + numNodes + " nodes but " + first.length +
+                                  " first indices");
+        }
+        for (int prim : order) {
+            if (prim < 0 || prim >= numPrims) {
+                throw new IOException("Tree primitive out of range: " + prim);
+            }
+        }
+        if (numPrims == 0) {
+            // an empty tree is only its root, which is never traversed
+            return;
+        }
+        for (int node = 0; node < numNodes; node++) {
+            long start = first[node];
+            long end = start + count[node];
+            boolean valid = count[node] > 0 ? start >= 0 && end <= numPrims
+                                            : count[node] == 0 && start > node &&
+                                              start + 1 < numNodes;
+            if (!valid) {
+                throw new IOException("Tree node " + node + " out of range");
+            }
+        }
+    }
+
+    // bytes taken by write for arrays of the given lengths
+    private static long size (int numCoordinates, int numNodes, int numIndices, int numPrims) {
+        return BLOCK_HEADER_SIZE + 8L * (numCoordinates + 6L * numNodes) +
+               4L * (numIndices + 2L * numNodes + numPrims);
+    }
+
+    // hex digits of the SHA-256 hash of the contents of the given file
+    private static String hash (File source) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error("SHA-256 is not available");
+        }
+        byte[] block = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(source)) {
+            int n;
+            while ((n = in.read(block)) > 0) {
+                digest.update(block, 0, n);
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    private static double[] getDoubles (ByteBuffer buffer, int n) {
+        double[] result = new double[n];
+        buffer.asDoubleBuffer().get(result);
+        buffer.position(buffer.position() + 8 * n);
+        return result;
+    }
+
+    private static int[] getInts (ByteBuffer buffer, int n) {
+        int[] result = new int[n];
+        buffer.asIntBuffer().get(result);
+        buffer.position(buffer.position() + 4 * n);
+        return result;
+    }
+
+    private static void putDoubles (ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + 8 * values.length);
+    }
+
+    private static void putInts (ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+}
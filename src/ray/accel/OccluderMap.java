@@ -0,0 +1,332 @@
+package ray.accel;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ray.math.BoundingBox;
+import ray.math.Point;
+import ray.math.Ray;
+import ray.math.Vector;
+import ray.surface.Sphere;
+import ray.surface.Surface;
+
+/**
+ * The surfaces that may block rays leaving a point light, sorted by direction.
+ *
+ * The directions around the light are split by a cube centered on it, each face divided into a
+ * grid of cells. Every cell lists the surfaces whose bounding box overlaps the directions through
+ * it, nearest first. A ray from the light then only tests the surfaces of the cell its direction
+ * falls in, up to the first one that starts beyond the end of the ray. Spheres are tested by
+ * the sphere kernel, with their terms for rays from the light computed once for the map.
+ *
+ * A map is only worth building while its cells list a few surfaces each, and it takes memory for
+ * every surface listed, so it is left without lists when they would be long or would not fit in
+ * the memory allowed. Rays from the light are then better traced through the scene's hierarchy.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class OccluderMap {
+    /** Largest number of cells along the side of a face. */
+    private static final int MAX_RESOLUTION = 32;
+    /** Surfaces per cell aimed for when choosing the resolution, if they were spread evenly. */
+    private static final int SURFACES_PER_CELL = 2;
+    /** Most surfaces the cells may list on average for the map to be worth using. */
+    private static final int MAX_AVERAGE_LIST = 16;
+    /** Bounds are widened by this much in face coordinates so rounding never loses a surface. */
+    private static final double MARGIN = 1e-6;
+
+    /** Number of cells along the side of each face. */
+    private final int resolution;
+    /** The surfaces sorted, indexed by candidates. */
+    private final List<Surface> surfaces;
+    /** The spheres among the surfaces, with their terms for rays from the light. */
+    private final SphereBatch spheres;
+    /** Whether some surface is not a sphere. */
+    private final boolean mixed;
+    /** Where the list of each cell starts in candidates, with one extra entry for the end. */
+    private final int[] cellStart;
+    /** The lists of all cells, one after the other, as indices of surfaces. */
+    private final int[] candidates;
+    /** Distance from the light to the bounding box of each entry of candidates, rounded down. */
+    private final float[] nearest;
+    private final SphereKernel kernel = SphereKernel.get();
+
+    /**
+     * Sort the given surfaces around a light at the given position, if the map takes no more
+     * memory than the given budget has left, which is then reduced by the memory it takes.
+     *
+     * @param originId the origin id of rays from the light
+     * @param spheres the spheres among the surfaces, entry k describing surface k, which the map
+     *        shares with others
+     * @param budget number of bytes all maps may still take
+     */
+    public OccluderMap (Point light, int originId, List<Surface> surfaces, SphereBatch spheres,
+                        AtomicLong budget) {
+        this.surfaces = surfaces;
+        double lx = light.x, ly = light.y, lz = light.z;
+        int n = surfaces.size();
+        int side = (int)Math.ceil(Math.sqrt(n / (6.0 * SURFACES_PER_CELL)));
+        resolution = Math.max(1, Math.min(MAX_RESOLUTION, side));
+        int faceCells = resolution * resolution;
+        int numCells = 6 * faceCells;
+        // bounds relative to the light, and the number of entries in each cell; every surface
+        // with bounds is listed at least once, so too many surfaces need not be counted
+        boolean usable = n <= (long)MAX_AVERAGE_LIST * numCells;
+        double[] boxes = new double[usable ? 6 * n : 0];
+        boolean[] listed = new boolean[usable ? n : 0];
+        int[] range = new int[4];
+        int[] counts = new int[numCells];
+        long total = 0;
+        int numListed = 0;
+        for (int i = 0; usable && i < n; i++) {
+            BoundingBox box = surfaces.get(i).getBounds();
+            if (box.isEmpty()) {
+                continue;
+            }
+            int b = 6 * i;
+            boxes[b + 0] = box.min.x - lx;
+            boxes[b + 1] = box.min.y - ly;
+            boxes[b + 2] = box.min.z - lz;
+            boxes[b + 3] = box.max.x - lx;
+            boxes[b + 4] = box.max.y - ly;
+            boxes[b + 5] = box.max.z - lz;
+            listed[i] = true;
+            numListed++;
+            for (int face = 0; face < 6; face++) {
+                coverage(boxes, b, face, range);
+                for (int v = range[2]; v <= range[3]; v++) {
+                    for (int u = range[0]; u <= range[1]; u++) {
+                        counts[face * faceCells + v * resolution + u]++;
+                        total++;
+                    }
+                }
+            }
+        }
+        usable = usable && total <= (long)MAX_AVERAGE_LIST * numCells;
+        long memory = memory(n, total, numCells + 1);
+        if (usable && budget.addAndGet(-memory) < 0) {
+            budget.addAndGet(memory);
+            usable = false;
+        }
+        if (!usable) {
+            this.spheres = null;
+            mixed = false;
+            cellStart = null;
+            candidates = null;
+            nearest = null;
+            return;
+        }
+        // surfaces nearest first, so that filling cells in this order keeps every list sorted;
+        // each key is the distance, as the bits of a float no larger, above the index
+        long[] keys = new long[numListed];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (listed[i]) {
+                float distance = roundDown(distance(boxes, 6 * i));
+                keys[k++] = (long)Float.floatToRawIntBits(distance) << 32 | i;
+            }
+        }
+        Arrays.sort(keys);
+        cellStart = new int[numCells + 1];
+        for (int cell = 0; cell < numCells; cell++) {
+            cellStart[cell + 1] = cellStart[cell] + counts[cell];
+        }
+        candidates = new int[cellStart[numCells]];
+        nearest = new float[candidates.length];
+        int[] next = Arrays.copyOf(cellStart, numCells);
+        for (long key : keys) {
+            int i = (int)key;
+            float distance = Float.intBitsToFloat((int)(key >>> 32));
+            for (int face = 0; face < 6; face++) {
+                coverage(boxes, 6 * i, face, range);
+                for (int v = range[2]; v <= range[3]; v++) {
+                    for (int u = range[0]; u <= range[1]; u++) {
+                        int e = next[face * faceCells + v * resolution + u]++;
+                        candidates[e] = i;
+                        nearest[e] = distance;
+                    }
+                }
+            }
+        }
+        this.spheres = spheres.forOrigin(originId, light);
+        boolean others = false;
+        for (Sphere s : spheres.spheres) {
+            others |= s == null;
+        }
+        mixed = others;
+    }
+
+    /**
+     * Returns false if the map has no lists, in which case rays from the light must be traced
+     * some other way.
+     */
+    public boolean isUsable () {
+        return candidates != null;
+    }
+
+    /**
+     * Returns true if any surface is hit by the given ray before it travels tMax. The ray must
+     * start at the light, with its origin id, and have a unit direction.
+     */
+    public boolean occludes (Ray ray, double tMax) {
+        return findOccluder(ray, tMax) >= 0;
+    }
+
+    /**
+     * Returns the index of a surface hit by the given ray before it travels tMax, -1 if there is
+     * none. The ray must start at the light, with its origin id, and have a unit direction.
+     */
+    public int findOccluder (Ray ray, double tMax) {
+        Vector d = ray.direction;
+        double ax = Math.abs(d.x), ay = Math.abs(d.y), az = Math.abs(d.z);
+        if (!(ax > 0 || ay > 0 || az > 0)) {
+            throw new Error("Shadow ray has no direction");
+        }
+        int face;
+        double u, v;
+        // the face of the major axis, with coordinates as in coverage
+        if (ax >= ay && ax >= az) {
+            face = d.x >= 0 ? 0 : 1;
+            u = d.y / ax;
+            v = d.z / ax;
+        } else if (ay >= az) {
+            face = d.y >= 0 ? 2 : 3;
+            u = d.z / ay;
+            v = d.x / ay;
+        } else {
+            face = d.z >= 0 ? 4 : 5;
+            u = d.x / az;
+            v = d.y / az;
+        }
+        int cell = face * resolution * resolution + cell(v) * resolution + cell(u);
+        int start = cellStart[cell];
+        // the rest are all too far to be reached
+        int end = reachable(start, cellStart[cell + 1], tMax);
+        int found = kernel.findOccluder(spheres, candidates, start, end, ray, tMax);
+        if (found >= 0) {
+            return candidates[found];
+        }
+        if (mixed) {
+            for (int i = start; i < end; i++) {
+                int k = candidates[i];
+                if (spheres.spheres[k] == null && surfaces.get(k).occludes(ray, tMax)) {
+                    return k;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the surface with the given index, such as one returned by findOccluder, is
+     * hit by the given ray before it travels tMax. The ray must be as for findOccluder.
+     */
+    public boolean occludes (int surface, Ray ray, double tMax) {
+        if (spheres.spheres[surface] != null) {
+            return kernel.occludes(spheres, surface, surface + 1, ray, tMax);
+        }
+        return surfaces.get(surface).occludes(ray, tMax);
+    }
+
+    /**
+     * Returns the number of surfaces listed over all cells.
+     */
+    public int size () {
+        return candidates != null ? candidates.length : 0;
+    }
+
+    /**
+     * Returns the number of bytes this map takes, about.
+     */
+    public long getMemory () {
+        return candidates != null ? memory(spheres.size(), candidates.length, cellStart.length)
+                                  : 0;
+    }
+
+    // bytes taken by the terms for the given number of surfaces, the given number of entries and
+    // the starts of the given number of cells
+    private static long memory (int numSurfaces, long numEntries, int numCells) {
+        return 8L * numSurfaces + 8 * numEntries + 4L * numCells;
+    }
+
+    // the end of the entries from start up to end that a ray stopping at tMax may reach, since
+    // they are sorted by distance
+    private int reachable (int start, int end, double tMax) {
+        int low = start, high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (nearest[middle] - Ray.EPSILON >= tMax) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    // stores in range the first and last cell in u then in v covered on the given face by the
+    // box at boxes[b .. b+5]; the face is axis face / 2 on its positive (even faces) or negative
+    // side, and the range is empty (first larger than last) if the box is entirely behind it
+    private void coverage (double[] boxes, int b, int face, int[] range) {
+        int a = face / 2;
+        int p = b + (a + 1) % 3;
+        int q = b + (a + 2) % 3;
+        // extent of the box in front of the light along the axis of the face
+        double near, far;
+        if (face % 2 == 0) {
+            near = Math.max(boxes[b + a], 0);
+            far = boxes[b + a + 3];
+        } else {
+            near = Math.max(-boxes[b + a + 3], 0);
+            far = -boxes[b + a];
+        }
+        if (far <= 0) {
+            range[0] = range[2] = 0;
+            range[1] = range[3] = -1;
+            return;
+        }
+        range[0] = cell(lowest(boxes[p], near, far) - MARGIN);
+        range[1] = cell(highest(boxes[p + 3], near, far) + MARGIN);
+        range[2] = cell(lowest(boxes[q], near, far) - MARGIN);
+        range[3] = cell(highest(boxes[q + 3], near, far) + MARGIN);
+    }
+
+    // smallest value of x / depth over x >= min and depth in [near, far]
+    private static double lowest (double min, double near, double far) {
+        if (min >= 0) {
+            return min / far;
+        }
+        return near > 0 ? min / near : Double.NEGATIVE_INFINITY;
+    }
+
+    // largest value of x / depth over x <= max and depth in [near, far]
+    private static double highest (double max, double near, double far) {
+        if (max <= 0) {
+            return max / far;
+        }
+        return near > 0 ? max / near : Double.POSITIVE_INFINITY;
+    }
+
+    // index of the cell containing the given face coordinate, which runs from -1 to 1
+    private int cell (double coord) {
+        int index = (int)Math.floor((coord + 1) * 0.5 * resolution);
+        return Math.max(0, Math.min(resolution - 1, index));
+    }
+
+    // distance from the light, at the origin, to the box at boxes[b .. b+5]
+    private static double distance (double[] boxes, int b) {
+        double sum = 0;
+        for (int a = 0; a < 3; a++) {
+            double gap = Math.max(0, Math.max(boxes[b + a], -boxes[b + a + 3]));
+            sum += gap * gap;
+        }
+        return Math.sqrt(sum);
+    }
+
+    // the largest float no larger than the given distance
+    private static float roundDown (double distance) {
+        float f = (float)distance;
+        return f > distance ? Math.nextDown(f) : f;
+    }
+}
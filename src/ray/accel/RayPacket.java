@@ -0,0 +1,178 @@
+package ray.accel;
+
+import ray.math.Point;
+import ray.math.Ray;
+import ray.math.Vector;
+import ray.surface.Hit;
+import ray.surface.Surface;
+
+/**
+ * A group of rays with a common origin that are traced through the scene together, such as the
+ * primary rays of a block of neighboring pixels.
+ *
+ * Ray directions and closest hits are kept in arrays of primitives so that surfaces can intersect
+ * every ray of the packet in one tight loop. The packet may also be given a frustum, the four
+ * planes through the origin that enclose all of its rays, which lets whole parts of the scene be
+ * skipped at once.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class RayPacket {
+    /** Most rays a packet can hold. */
+    public static final int MAX_SIZE = 64;
+
+    /** The rays themselves. */
+    public final Ray[] rays = new Ray[MAX_SIZE];
+    /** Normalized direction of each ray. */
+    public final double[] dx = new double[MAX_SIZE];
+    public final double[] dy = new double[MAX_SIZE];
+    public final double[] dz = new double[MAX_SIZE];
+    /** Inverse of the direction of each ray, for slab tests. */
+    public final double[] ix = new double[MAX_SIZE];
+    public final double[] iy = new double[MAX_SIZE];
+    public final double[] iz = new double[MAX_SIZE];
+    /** Distance to the closest hit of each ray, or the largest distance of interest. */
+    public final double[] tMax = new double[MAX_SIZE];
+    /** Closest surface hit by each ray, null if none. */
+    public final Surface[] surfaces = new Surface[MAX_SIZE];
+    /** Part of the closest surface hit by each ray, see Hit.primitive. */
+    public final int[] primitives = new int[MAX_SIZE];
+    /** Material of the closest hit of each ray when it is not the surface's, see Hit.material. */
+    public final int[] materials = new int[MAX_SIZE];
+    /** Normal of the closest hit of each ray, when it is set along with the hit. */
+    public final double[] nx = new double[MAX_SIZE];
+    public final double[] ny = new double[MAX_SIZE];
+    public final double[] nz = new double[MAX_SIZE];
+    /** Hits this close to the origin are ignored. */
+    public double tMin = Ray.EPSILON;
+    /** Common origin of all the rays. */
+    public double ox, oy, oz;
+    /** Identifies the common origin of the rays, see Ray.originId. */
+    public int originId = Ray.NO_ORIGIN;
+    /** Number of rays in the packet. */
+    public int size;
+    /** A record surfaces can use while intersecting rays of this packet one at a time. */
+    public final Hit scratch = new Hit();
+
+    /** Inward facing normals of the frustum planes, three values per plane. */
+    private final double[] planes = new double[12];
+    private boolean hasFrustum;
+
+    /**
+     * Empty the packet, so that it is ready for rays starting at the given origin, with the given
+     * origin id or Ray.NO_ORIGIN.
+     */
+    public void clear (Point origin, int originId) {
+        ox = origin.x;
+        oy = origin.y;
+        oz = origin.z;
+        this.originId = originId;
+        size = 0;
+        hasFrustum = false;
+    }
+
+    /**
+     * Add a ray to the packet, its origin must be the origin of the packet.
+     *
+     * @return the index of the ray in the packet
+     */
+    public int add (Ray ray) {
+        int i = size++;
+        rays[i] = ray;
+        dx[i] = ray.direction.x;
+        dy[i] = ray.direction.y;
+        dz[i] = ray.direction.z;
+        ix[i] = 1 / dx[i];
+        iy[i] = 1 / dy[i];
+        iz[i] = 1 / dz[i];
+        tMax[i] = Double.POSITIVE_INFINITY;
+        surfaces[i] = null;
+        primitives[i] = -1;
+        materials[i] = Hit.NO_MATERIAL;
+        return i;
+    }
+
+    /**
+     * Set the frustum of this packet from the directions of its four corner rays, given in order
+     * around the packet. Every ray in the packet must be a positive combination of the corners.
+     */
+    public void setFrustum (Vector c0, Vector c1, Vector c2, Vector c3) {
+        Vector[] corners = { c0, c1, c2, c3 };
+        Vector center = new Vector(c0).add(c1).add(c2).add(c3);
+        for (int i = 0; i < 4; i++) {
+            Vector n = corners[i].cross(corners[(i + 1) % 4]);
+            if (n.dot(center) < 0) {
+                n.negate();
+            }
+            planes[3 * i + 0] = n.x;
+            planes[3 * i + 1] = n.y;
+            planes[3 * i + 2] = n.z;
+        }
+        hasFrustum = true;
+    }
+
+    /**
+     * Copy the result for the given ray into a hit record.
+     */
+    public Hit getHit (int i, Hit hit) {
+        hit.reset(tMin, tMax[i]);
+        hit.surface = surfaces[i];
+        hit.primitive = primitives[i];
+        hit.material = materials[i];
+        hit.normal.set(nx[i], ny[i], nz[i]);
+        return hit;
+    }
+
+    /**
+     * Copy a closer hit for the given ray back from a hit record.
+     */
+    public void setHit (int i, Hit hit) {
+        tMax[i] = hit.tMax;
+        surfaces[i] = hit.surface;
+        primitives[i] = hit.primitive;
+        materials[i] = hit.material;
+        nx[i] = hit.normal.x;
+        ny[i] = hit.normal.y;
+        nz[i] = hit.normal.z;
+    }
+
+    /**
+     * Returns the largest distance to a closest hit over all rays of the packet.
+     */
+    public double getMaxDistance () {
+        double max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, tMax[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns true if the box with the given corners may be hit by a ray of this packet closer
+     * than maxDistance. This is conservative: it may return true even when no ray hits the box.
+     */
+    public boolean mayHit (double minX, double minY, double minZ,
+                           double maxX, double maxY, double maxZ, double maxDistance) {
+        // distance from the origin to the nearest point of the box
+        double ex = Math.max(0, Math.max(minX - ox, ox - maxX));
+        double ey = Math.max(0, Math.max(minY - oy, oy - maxY));
+        double ez = Math.max(0, Math.max(minZ - oz, oz - maxZ));
+        if (ex * ex + ey * ey + ez * ez > maxDistance * maxDistance) {
+            return false;
+        }
+        if (!hasFrustum) {
+            return true;
+        }
+        // outside if the box corner furthest along a plane's normal is still behind it
+        for (int p = 0; p < 12; p += 3) {
+            double nx = planes[p], ny = planes[p + 1], nz = planes[p + 2];
+            double px = (nx >= 0 ? maxX : minX) - ox;
+            double py = (ny >= 0 ? maxY : minY) - oy;
+            double pz = (nz >= 0 ? maxZ : minZ) - oz;
+            if (nx * px + ny * py + nz * pz < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+package ray.accel;
+
+import ray.math.BoundingBox;
+import ray.math.Ray;
+import ray.surface.Hit;
+import ray.surface.Sphere;
+
+/**
+ * Sphere kernel that handles one sphere at a time, used when the Vector API is not available.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class ScalarSphereKernel extends SphereKernel {
+    @Override
+    public boolean intersect (SphereBatch batch, int start, int end, Ray ray, Hit hit) {
+        double ox = ray.getOrigin().x;
+        double oy = ray.getOrigin().y;
+        double oz = ray.getOrigin().z;
+        double dx = ray.direction.x;
+        double dy = ray.direction.y;
+        double dz = ray.direction.z;
+        double[] terms = batch.getOriginTerms(ray.originId);
+        boolean found = false;
+        for (int k = start; k < end; k++) {
+            if (batch.spheres[k] == null) {
+                continue;
+            }
+            double ex = ox - batch.cx[k];
+            double ey = oy - batch.cy[k];
+            double ez = oz - batch.cz[k];
+            double b = dx * ex + dy * ey + dz * ez;
+            double c = terms != null ? terms[k] : ex * ex + ey * ey + ez * ez - batch.r2[k];
+            double discriminant = b * b - c;
+            if (discriminant < 0) {
+                continue;
+            }
+            double root = Math.sqrt(discriminant);
+            double t = -b - root;
+            if (t <= hit.tMin) {
+                t = -b + root;
+            }
+            found |= hit.record(t, batch.spheres[k]);
+        }
+        return found;
+    }
+
+    @Override
+    public void intersect (SphereBatch batch, int start, int end, RayPacket packet) {
+        double[] terms = batch.getOriginTerms(packet.originId);
+        double tMin = packet.tMin;
+        for (int k = start; k < end; k++) {
+            Sphere sphere = batch.spheres[k];
+            if (sphere == null) {
+                continue;
+            }
+            // the origin is shared, so only b depends on the ray
+            double ex = packet.ox - batch.cx[k];
+            double ey = packet.oy - batch.cy[k];
+            double ez = packet.oz - batch.cz[k];
+            double c = terms != null ? terms[k] : ex * ex + ey * ey + ez * ez - batch.r2[k];
+            for (int i = 0; i < packet.size; i++) {
+                double b = packet.dx[i] * ex + packet.dy[i] * ey + packet.dz[i] * ez;
+                double discriminant = b * b - c;
+                if (discriminant < 0) {
+                    continue;
+                }
+                double root = Math.sqrt(discriminant);
+                double t = -b - root;
+                if (t <= tMin) {
+                    t = -b + root;
+                }
+                if (t > tMin && t < packet.tMax[i]) {
+                    record(packet, i, t, sphere);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean anyEnters (double[] box, int b, RayPacket packet) {
+        for (int i = 0; i < packet.size; i++) {
+            if (BoundingBox.enter(box, b, packet.ox, packet.oy, packet.oz, packet.ix[i],
+                                  packet.iy[i], packet.iz[i], 0, packet.tMax[i]) <
+                Double.POSITIVE_INFINITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int findOccluder (SphereBatch batch, int start, int end, Ray ray, double tMax) {
+        double ox = ray.getOrigin().x;
+        double oy = ray.getOrigin().y;
+        double oz = ray.getOrigin().z;
+        double dx = ray.direction.x;
+        double dy = ray.direction.y;
+        double dz = ray.direction.z;
+        double[] terms = batch.getOriginTerms(ray.originId);
+        for (int k = start; k < end; k++) {
+            if (batch.spheres[k] == null) {
+                continue;
+            }
+            double ex = ox - batch.cx[k];
+            double ey = oy - batch.cy[k];
+            double ez = oz - batch.cz[k];
+            double b = dx * ex + dy * ey + dz * ez;
+            double c = terms != null ? terms[k] : ex * ex + ey * ey + ez * ez - batch.r2[k];
+            double discriminant = b * b - c;
+            if (discriminant < 0) {
+                continue;
+            }
+            double root = Math.sqrt(discriminant);
+            double near = -b - root;
+            double far = -b + root;
+            if ((near > Ray.EPSILON && near < tMax) || (far > Ray.EPSILON && far < tMax)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int findOccluder (SphereBatch batch, int[] entries, int start, int end, Ray ray,
+                             double tMax) {
+        double ox = ray.getOrigin().x;
+        double oy = ray.getOrigin().y;
+        double oz = ray.getOrigin().z;
+        double dx = ray.direction.x;
+        double dy = ray.direction.y;
+        double dz = ray.direction.z;
+        double[] terms = batch.getOriginTerms(ray.originId);
+        for (int i = start; i < end; i++) {
+            int k = entries[i];
+            if (batch.spheres[k] == null) {
+                continue;
+            }
+            double ex = ox - batch.cx[k];
+            double ey = oy - batch.cy[k];
+            double ez = oz - batch.cz[k];
+            double b = dx * ex + dy * ey + dz * ez;
+            double c = terms != null ? terms[k] : ex * ex + ey * ey + ez * ez - batch.r2[k];
+            double discriminant = b * b - c;
+            if (discriminant < 0) {
+                continue;
+            }
+            double root = Math.sqrt(discriminant);
+            double near = -b - root;
+            double far = -b + root;
+            if ((near > Ray.EPSILON && near < tMax) || (far > Ray.EPSILON && far < tMax)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
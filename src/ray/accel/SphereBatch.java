@@ -0,0 +1,127 @@
+package ray.accel;
+
+import ray.math.Point;
+import ray.math.Ray;
+import ray.surface.Sphere;
+import ray.surface.Surface;
+
+/**
+ * The spheres among a list of surfaces, stored as a structure of arrays so that several of them
+ * can be intersected at once.
+ *
+ * Each entry describes one surface of the list. Entries for surfaces that are not spheres have a
+ * null sphere and a radius squared of negative infinity, which no ray can hit.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class SphereBatch {
+    /** Coordinates of the centers. */
+    public final double[] cx;
+    public final double[] cy;
+    public final double[] cz;
+    /** Radius squared. */
+    public final double[] r2;
+    /** The spheres themselves, null for other surfaces. */
+    public final Sphere[] spheres;
+    /** The shared origin whose terms are cached, Ray.NO_ORIGIN if none are. */
+    private int originId = Ray.NO_ORIGIN;
+    /** Where that origin was when its terms were computed. */
+    private final Point origin = new Point();
+    /**
+     * For rays from that origin, the squared distance from the origin to each center less the
+     * radius squared, by entry.
+     */
+    private double[] originTerms;
+
+    /**
+     * Collect the spheres among the given surfaces, entry k describing surface k.
+     */
+    public SphereBatch (Surface[] surfaces) {
+        this(surfaces, null);
+    }
+
+    /**
+     * Collect the spheres among the given surfaces, taken in the given order.
+     *
+     * @param surfaces all surfaces
+     * @param order index into surfaces of each entry of the batch, null to take them in order
+     */
+    public SphereBatch (Surface[] surfaces, int[] order) {
+        int n = order != null ? order.length : surfaces.length;
+        cx = new double[n];
+        cy = new double[n];
+        cz = new double[n];
+        r2 = new double[n];
+        spheres = new Sphere[n];
+        for (int k = 0; k < n; k++) {
+            Surface s = surfaces[order != null ? order[k] : k];
+            if (s instanceof Sphere) {
+                Sphere sphere = (Sphere)s;
+                spheres[k] = sphere;
+                cx[k] = sphere.getCenter().x;
+                cy[k] = sphere.getCenter().y;
+                cz[k] = sphere.getCenter().z;
+                r2[k] = sphere.getRadius() * sphere.getRadius();
+            } else {
+                r2[k] = Double.NEGATIVE_INFINITY;
+            }
+        }
+    }
+
+    // a batch of the same spheres as the given one, sharing its arrays, without terms
+    private SphereBatch (SphereBatch other) {
+        cx = other.cx;
+        cy = other.cy;
+        cz = other.cz;
+        r2 = other.r2;
+        spheres = other.spheres;
+    }
+
+    /**
+     * Returns a batch of the same spheres, sharing their arrays with this one, that keeps its own
+     * terms for rays from the given shared origin.
+     */
+    public SphereBatch forOrigin (int id, Point position) {
+        SphereBatch result = new SphereBatch(this);
+        result.cacheOrigin(id, position);
+        return result;
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    public int size () {
+        return spheres.length;
+    }
+
+    /**
+     * Precompute the origin dependent term of the intersection for rays from the given shared
+     * origin, replacing the terms of any other. Nothing is done if the terms for the origin at
+     * this position are already there.
+     */
+    public void cacheOrigin (int id, Point position) {
+        if (originTerms != null && id == originId && position.x == origin.x &&
+            position.y == origin.y && position.z == origin.z) {
+            return;
+        }
+        int n = spheres.length;
+        double[] terms = new double[n];
+        for (int k = 0; k < n; k++) {
+            // same operations, in the same order, as the kernels
+            double ex = position.x - cx[k];
+            double ey = position.y - cy[k];
+            double ez = position.z - cz[k];
+            terms[k] = ex * ex + ey * ey + ez * ez - r2[k];
+        }
+        originTerms = terms;
+        originId = id;
+        origin.set(position);
+    }
+
+    /**
+     * Returns the precomputed terms for rays from the given origin, null if there are none.
+     */
+    public double[] getOriginTerms (int id) {
+        return id == originId && id != Ray.NO_ORIGIN ? originTerms : null;
+    }
+}
@@ -0,0 +1,96 @@
+package ray.accel;
+
+import ray.math.Ray;
+import ray.surface.Hit;
+import ray.surface.Sphere;
+
+/**
+ * Intersects a ray, or a packet of rays, with a range of entries of a SphereBatch, and tests
+ * packets against the boxes of a hierarchy.
+ *
+ * Every kernel must give exactly the same results as Sphere.intersect, Sphere.occludes and
+ * BoundingBox.enter, so they all perform the same floating point operations in the same order.
+ *
+ * @author Eli Williams (erw19)
+ */
+public abstract class SphereKernel {
+    /** The fastest kernel available on this JVM. */
+    private static final SphereKernel INSTANCE = create();
+
+    /**
+     * Returns the fastest kernel available.
+     *
+     * This is the one built on the Java Vector API when the jdk.incubator.vector module has been
+     * added to the JVM (and the system property ray.simd is not false), otherwise a scalar one.
+     */
+    public static SphereKernel get () {
+        return INSTANCE;
+    }
+
+    private static SphereKernel create () {
+        if (!"false".equals(System.getProperty("ray.simd")) &&
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (SphereKernel)Class.forName("ray.accel.VectorSphereKernel")
+                                          .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Vector API unavailable, using scalar sphere kernel: " + e);
+            }
+        }
+        return new ScalarSphereKernel();
+    }
+
+    /**
+     * Intersect the ray with entries start through end - 1 of the batch, recording the closest
+     * hit inside the interval of the hit record. Entries that are not spheres are ignored.
+     *
+     * @return true if a closer hit was recorded
+     */
+    public abstract boolean intersect (SphereBatch batch, int start, int end, Ray ray, Hit hit);
+
+    /**
+     * Intersect every ray of the packet with entries start through end - 1 of the batch, one
+     * entry after another, recording closer hits in the packet as Sphere.intersect does. Entries
+     * that are not spheres are ignored.
+     */
+    public abstract void intersect (SphereBatch batch, int start, int end, RayPacket packet);
+
+    /**
+     * Returns true if at least one ray of the packet enters the box stored at box[b .. b+5]
+     * before its closest hit so far, by the same slab test as BoundingBox.enter from 0. Packets
+     * spend more of their time testing the boxes of a hierarchy than its spheres, so boxes are
+     * tested here too.
+     */
+    public abstract boolean anyEnters (double[] box, int b, RayPacket packet);
+
+    /**
+     * Returns true if the ray hits one of the spheres among entries start through end - 1 of the
+     * batch at a distance between Ray.EPSILON and tMax.
+     */
+    public boolean occludes (SphereBatch batch, int start, int end, Ray ray, double tMax) {
+        return findOccluder(batch, start, end, ray, tMax) >= 0;
+    }
+
+    /**
+     * Returns the first of entries start through end - 1 of the batch whose sphere the ray hits
+     * at a distance between Ray.EPSILON and tMax, or -1 if there is none.
+     */
+    public abstract int findOccluder (SphereBatch batch, int start, int end, Ray ray,
+                                      double tMax);
+
+    /**
+     * Returns the first of positions start through end - 1 of the given list of entries of the
+     * batch whose sphere the ray hits at a distance between Ray.EPSILON and tMax, or -1 if there
+     * is none.
+     */
+    public abstract int findOccluder (SphereBatch batch, int[] entries, int start, int end,
+                                      Ray ray, double tMax);
+
+    // record a closer hit of ray i of the packet on the given sphere, as Sphere.intersect does
+    static void record (RayPacket packet, int i, double t, Sphere sphere) {
+        packet.tMax[i] = t;
+        packet.surfaces[i] = sphere;
+        packet.primitives[i] = -1;
+        packet.materials[i] = Hit.NO_MATERIAL;
+    }
+}
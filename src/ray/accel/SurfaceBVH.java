@@ -0,0 +1,214 @@
+package ray.accel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import ray.math.BoundingBox;
+import ray.math.Point;
+import ray.math.Ray;
+import ray.surface.Hit;
+import ray.surface.Sphere;
+import ray.surface.Surface;
+
+/**
+ * A bounding volume hierarchy whose primitives are the surfaces of a scene.
+ *
+ * Its arrays can be written to a buffer and read back over the same surfaces, as the MeshCache
+ * does for the tree of a mesh, so that a scene snapshot need not build it again.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class SurfaceBVH extends BVH {
+    /** The lengths of the arrays, then padding to align the doubles. */
+    private static final int BLOCK_HEADER_SIZE = 4 * 4;
+
+    /** The surfaces, indexed the same way as the primitives of the tree. */
+    private final Surface[] surfaces;
+    /** The spheres among the surfaces, in the order of the leaves. */
+    private final SphereBatch spheres;
+    /** Whether some leaf holds a surface that is not a sphere. */
+    private final boolean mixed;
+
+    /**
+     * Build a hierarchy over the given surfaces.
+     */
+    public SurfaceBVH (List<Surface> toAdd) {
+        surfaces = toAdd.toArray(new Surface[toAdd.size()]);
+        double[] boxes = new double[6 * surfaces.length];
+        for (int i = 0; i < surfaces.length; i++) {
+            BoundingBox box = surfaces[i].getBounds();
+            boxes[6 * i + 0] = box.min.x;
+            boxes[6 * i + 1] = box.min.y;
+            boxes[6 * i + 2] = box.min.z;
+            boxes[6 * i + 3] = box.max.x;
+            boxes[6 * i + 4] = box.max.y;
+            boxes[6 * i + 5] = box.max.z;
+        }
+        build(boxes, surfaces.length);
+        spheres = new SphereBatch(surfaces, order);
+        mixed = isMixed(surfaces);
+    }
+
+    // restore a hierarchy over the given surfaces that was built before
+    private SurfaceBVH (Surface[] surfaces, double[] bounds, int[] first, int[] count,
+                        int[] order) {
+        this.surfaces = surfaces;
+        this.bounds = bounds;
+        this.first = first;
+        this.count = count;
+        this.order = order;
+        numNodes = count.length;
+        spheres = new SphereBatch(surfaces, order);
+        mixed = isMixed(surfaces);
+    }
+
+    /**
+     * Returns the number of bytes write takes.
+     */
+    public long getWrittenSize () {
+        return size(numNodes, order.length);
+    }
+
+    /**
+     * Write the tree at the position of the buffer: the lengths of the arrays, then the node boxes
+     * as doubles, then the node first, count and order arrays as ints.
+     */
+    public void write (ByteBuffer buffer) {
+        buffer.putInt(numNodes).putInt(order.length);
+        buffer.putLong(0);
+        buffer.asDoubleBuffer().put(bounds, 0, 6 * numNodes);
+        buffer.position(buffer.position() + 8 * 6 * numNodes);
+        buffer.asIntBuffer().put(first, 0, numNodes).put(count, 0, numNodes).put(order);
+        buffer.position(buffer.position() + 4 * (2 * numNodes + order.length));
+    }
+
+    /**
+     * Read back a tree written by write at the position of the buffer, over the given surfaces,
+     * which must be those it was built over, in the same order.
+     *
+     * @throws IOException if the lengths do not fit in the buffer or the arrays do not make a
+     *         tree over the surfaces
+     */
+    public static SurfaceBVH read (ByteBuffer buffer, List<Surface> surfaces) throws IOException {
+        int numNodes = buffer.getInt();
+        int numPrims = buffer.getInt();
+        buffer.getLong();
+        if (numNodes < 1 || numPrims != surfaces.size() ||
+            size(numNodes, numPrims) - BLOCK_HEADER_SIZE > buffer.remaining()) {
+            throw new IOException("Tree array lengths out of range");
+        }
+        double[] bounds = new double[6 * numNodes];
+        buffer.asDoubleBuffer().get(bounds);
+        buffer.position(buffer.position() + 8 * bounds.length);
+        int[] first = new int[numNodes];
+        int[] count = new int[numNodes];
+        int[] order = new int[numPrims];
+        buffer.asIntBuffer().get(first).get(count).get(order);
+        buffer.position(buffer.position() + 4 * (2 * numNodes + numPrims));
+        MeshCache.checkTree(first, count, order);
+        return new SurfaceBVH(surfaces.toArray(new Surface[numPrims]), bounds, first, count,
+                              order);
+    }
+
+    // bytes taken by write for a tree of the given size
+    private static long size (int numNodes, int numPrims) {
+        return BLOCK_HEADER_SIZE + 8L * 6 * numNodes + 4L * (2L * numNodes + numPrims);
+    }
+
+    // true if some of the surfaces are not spheres
+    private static boolean isMixed (Surface[] surfaces) {
+        for (Surface s : surfaces) {
+            if (!(s instanceof Sphere)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of surfaces, the primitives of the tree.
+     */
+    public int getNumSurfaces () {
+        return surfaces.length;
+    }
+
+    /**
+     * Returns the surface with the given primitive index.
+     */
+    public Surface getSurface (int index) {
+        return surfaces[index];
+    }
+
+    /**
+     * Precompute for rays starting at the given points, indexed by origin id, in every surface.
+     * The sphere batch only keeps the terms of the first, the camera, since rays from the lights
+     * are shadow rays, which the scene tests against the surfaces around each light instead.
+     */
+    public void cacheOrigins (Point[] origins) {
+        spheres.cacheOrigin(0, origins[0]);
+        for (Surface s : surfaces) {
+            s.cacheOrigins(origins);
+        }
+    }
+
+    @Override
+    protected boolean intersectLeaf (int start, int end, Ray ray, Hit hit) {
+        boolean found = kernel.intersect(spheres, start, end, ray, hit);
+        if (mixed) {
+            for (int i = start; i < end; i++) {
+                if (spheres.spheres[i] == null) {
+                    found |= surfaces[order[i]].intersect(ray, hit);
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    protected void intersectLeaf (int start, int end, RayPacket packet) {
+        // other surfaces are intersected between the runs of spheres around them, so that every
+        // ray meets the surfaces of the leaf in the same order as one at a time
+        int run = start;
+        if (mixed) {
+            for (int i = start; i < end; i++) {
+                if (spheres.spheres[i] == null) {
+                    kernel.intersect(spheres, run, i, packet);
+                    surfaces[order[i]].intersect(packet);
+                    run = i + 1;
+                }
+            }
+        }
+        kernel.intersect(spheres, run, end, packet);
+    }
+
+    @Override
+    protected boolean occludesLeaf (int start, int end, Ray ray, double tMax) {
+        if (kernel.occludes(spheres, start, end, ray, tMax)) {
+            return true;
+        }
+        if (mixed) {
+            for (int i = start; i < end; i++) {
+                if (spheres.spheres[i] == null && surfaces[order[i]].occludes(ray, tMax)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected boolean intersectPrimitive (int index, Ray ray, Hit hit) {
+        return surfaces[index].intersect(ray, hit);
+    }
+
+    @Override
+    protected void intersectPrimitive (int index, RayPacket packet) {
+        surfaces[index].intersect(packet);
+    }
+
+    @Override
+    protected boolean occludesPrimitive (int index, Ray ray, double tMax) {
+        return surfaces[index].occludes(ray, tMax);
+    }
+}
@@ -0,0 +1,290 @@
+package ray.accel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import ray.math.BoundingBox;
+import ray.math.Ray;
+import ray.surface.Hit;
+import ray.surface.Sphere;
+
+/**
+ * Sphere kernel that intersects as many spheres, or packet rays, per instruction as the preferred
+ * vector shape of the machine holds (four with AVX2).
+ *
+ * Requires the incubating jdk.incubator.vector module, both to compile and to run, so it is only
+ * ever loaded by name from SphereKernel.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class VectorSphereKernel extends SphereKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    /**
+     * Handles what is left after the last whole vector, since masked loads cost more than they
+     * save on most machines.
+     */
+    private final SphereKernel scalar = new ScalarSphereKernel();
+    private final ThreadLocal<Gathered> gathered = new ThreadLocal<Gathered>() {
+        @Override
+        protected Gathered initialValue () {
+            return new Gathered();
+        }
+    };
+
+    @Override
+    public boolean intersect (SphereBatch batch, int start, int end, Ray ray, Hit hit) {
+        double dx = ray.direction.x;
+        double dy = ray.direction.y;
+        double dz = ray.direction.z;
+        double[] terms = batch.getOriginTerms(ray.originId);
+        int bound = start + SPECIES.loopBound(end - start);
+        boolean found = false;
+        for (int k = start; k < bound; k += SPECIES.length()) {
+            DoubleVector ex = center(batch.cx, k, ray.getOrigin().x);
+            DoubleVector ey = center(batch.cy, k, ray.getOrigin().y);
+            DoubleVector ez = center(batch.cz, k, ray.getOrigin().z);
+            // same operations, in the same order, as Sphere.intersect
+            DoubleVector b = ex.mul(dx).add(ey.mul(dy)).add(ez.mul(dz));
+            DoubleVector c = term(batch, terms, k, ex, ey, ez);
+            DoubleVector discriminant = b.mul(b).sub(c);
+            VectorMask<Double> valid = discriminant.compare(VectorOperators.GE, 0);
+            if (!valid.anyTrue()) {
+                continue;
+            }
+            DoubleVector root = discriminant.lanewise(VectorOperators.SQRT);
+            DoubleVector minusB = b.neg();
+            DoubleVector t = minusB.sub(root);
+            t = t.blend(minusB.add(root), t.compare(VectorOperators.LE, hit.tMin));
+            valid = valid.and(t.compare(VectorOperators.GT, hit.tMin))
+                         .and(t.compare(VectorOperators.LT, hit.tMax));
+            // record in lane order so ties are broken exactly as one sphere at a time would
+            for (int lane = valid.firstTrue(); lane < SPECIES.length(); lane++) {
+                if (valid.laneIsSet(lane)) {
+                    found |= hit.record(t.lane(lane), batch.spheres[k + lane]);
+                }
+            }
+        }
+        return scalar.intersect(batch, bound, end, ray, hit) | found;
+    }
+
+    @Override
+    public void intersect (SphereBatch batch, int start, int end, RayPacket packet) {
+        double[] terms = batch.getOriginTerms(packet.originId);
+        double tMin = packet.tMin;
+        int bound = SPECIES.loopBound(packet.size);
+        for (int k = start; k < end; k++) {
+            Sphere sphere = batch.spheres[k];
+            if (sphere == null) {
+                continue;
+            }
+            // one sphere against as many rays per instruction as fit
+            double ex = packet.ox - batch.cx[k];
+            double ey = packet.oy - batch.cy[k];
+            double ez = packet.oz - batch.cz[k];
+            double c = terms != null ? terms[k] : ex * ex + ey * ey + ez * ez - batch.r2[k];
+            for (int i = 0; i < bound; i += SPECIES.length()) {
+                DoubleVector b = DoubleVector.fromArray(SPECIES, packet.dx, i).mul(ex)
+                                             .add(DoubleVector.fromArray(SPECIES, packet.dy, i)
+                                                              .mul(ey))
+                                             .add(DoubleVector.fromArray(SPECIES, packet.dz, i)
+                                                              .mul(ez));
+                DoubleVector discriminant = b.mul(b).sub(c);
+                VectorMask<Double> valid = discriminant.compare(VectorOperators.GE, 0);
+                if (!valid.anyTrue()) {
+                    continue;
+                }
+                DoubleVector root = discriminant.lanewise(VectorOperators.SQRT);
+                DoubleVector minusB = b.neg();
+                DoubleVector t = minusB.sub(root);
+                t = t.blend(minusB.add(root), t.compare(VectorOperators.LE, tMin));
+                DoubleVector tMax = DoubleVector.fromArray(SPECIES, packet.tMax, i);
+                VectorMask<Double> closer = valid.and(t.compare(VectorOperators.GT, tMin))
+                                                 .and(t.compare(VectorOperators.LT, tMax));
+                for (int lane = closer.firstTrue(); lane < SPECIES.length(); lane++) {
+                    if (closer.laneIsSet(lane)) {
+                        record(packet, i + lane, t.lane(lane), sphere);
+                    }
+                }
+            }
+            for (int i = bound; i < packet.size; i++) {
+                double b = packet.dx[i] * ex + packet.dy[i] * ey + packet.dz[i] * ez;
+                double discriminant = b * b - c;
+                if (discriminant < 0) {
+                    continue;
+                }
+                double root = Math.sqrt(discriminant);
+                double t = -b - root;
+                if (t <= tMin) {
+                    t = -b + root;
+                }
+                if (t > tMin && t < packet.tMax[i]) {
+                    record(packet, i, t, sphere);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean anyEnters (double[] box, int b, RayPacket packet) {
+        // same operations, in the same order, as BoundingBox.enter
+        double minX = box[b] - packet.ox, maxX = box[b + 3] - packet.ox;
+        double minY = box[b + 1] - packet.oy, maxY = box[b + 4] - packet.oy;
+        double minZ = box[b + 2] - packet.oz, maxZ = box[b + 5] - packet.oz;
+        int bound = SPECIES.loopBound(packet.size);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            DoubleVector ix = DoubleVector.fromArray(SPECIES, packet.ix, i);
+            DoubleVector t0 = ix.mul(minX);
+            DoubleVector t1 = ix.mul(maxX);
+            DoubleVector near = t0.min(t1);
+            DoubleVector far = t0.max(t1);
+            DoubleVector iy = DoubleVector.fromArray(SPECIES, packet.iy, i);
+            t0 = iy.mul(minY);
+            t1 = iy.mul(maxY);
+            near = near.max(t0.min(t1));
+            far = far.min(t0.max(t1));
+            DoubleVector iz = DoubleVector.fromArray(SPECIES, packet.iz, i);
+            t0 = iz.mul(minZ);
+            t1 = iz.mul(maxZ);
+            near = near.max(t0.min(t1));
+            far = far.min(t0.max(t1));
+            near = near.max(0);
+            far = far.min(DoubleVector.fromArray(SPECIES, packet.tMax, i));
+            if (near.compare(VectorOperators.LE, far).anyTrue()) {
+                return true;
+            }
+        }
+        for (int i = bound; i < packet.size; i++) {
+            if (BoundingBox.enter(box, b, packet.ox, packet.oy, packet.oz, packet.ix[i],
+                                  packet.iy[i], packet.iz[i], 0, packet.tMax[i]) <
+                Double.POSITIVE_INFINITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int findOccluder (SphereBatch batch, int start, int end, Ray ray, double tMax) {
+        double dx = ray.direction.x;
+        double dy = ray.direction.y;
+        double dz = ray.direction.z;
+        double[] terms = batch.getOriginTerms(ray.originId);
+        int bound = start + SPECIES.loopBound(end - start);
+        for (int k = start; k < bound; k += SPECIES.length()) {
+            DoubleVector ex = center(batch.cx, k, ray.getOrigin().x);
+            DoubleVector ey = center(batch.cy, k, ray.getOrigin().y);
+            DoubleVector ez = center(batch.cz, k, ray.getOrigin().z);
+            DoubleVector b = ex.mul(dx).add(ey.mul(dy)).add(ez.mul(dz));
+            DoubleVector c = term(batch, terms, k, ex, ey, ez);
+            DoubleVector discriminant = b.mul(b).sub(c);
+            VectorMask<Double> valid = discriminant.compare(VectorOperators.GE, 0);
+            if (!valid.anyTrue()) {
+                continue;
+            }
+            DoubleVector root = discriminant.lanewise(VectorOperators.SQRT);
+            DoubleVector minusB = b.neg();
+            DoubleVector near = minusB.sub(root);
+            DoubleVector far = minusB.add(root);
+            VectorMask<Double> nearHit = near.compare(VectorOperators.GT, Ray.EPSILON)
+                                             .and(near.compare(VectorOperators.LT, tMax));
+            VectorMask<Double> farHit = far.compare(VectorOperators.GT, Ray.EPSILON)
+                                           .and(far.compare(VectorOperators.LT, tMax));
+            VectorMask<Double> blocked = valid.and(nearHit.or(farHit));
+            if (blocked.anyTrue()) {
+                return k + blocked.firstTrue();
+            }
+        }
+        return scalar.findOccluder(batch, bound, end, ray, tMax);
+    }
+
+    @Override
+    public int findOccluder (SphereBatch batch, int[] entries, int start, int end, Ray ray,
+                             double tMax) {
+        double[] terms = batch.getOriginTerms(ray.originId);
+        int bound = start + SPECIES.loopBound(end - start);
+        // short lists are mostly blocked by one of their first entries, which one at a time
+        // finds sooner than copying them would
+        if (end - start < 2 * SPECIES.length()) {
+            return scalar.findOccluder(batch, entries, start, end, ray, tMax);
+        }
+        // gathering lanes by hand, since gathering loads crash some releases of the incubating
+        // module
+        Gathered g = gathered.get().fit(bound - start);
+        for (int i = start, j = 0; i < bound; i++, j++) {
+            int k = entries[i];
+            g.cx[j] = batch.cx[k];
+            g.cy[j] = batch.cy[k];
+            g.cz[j] = batch.cz[k];
+            g.terms[j] = terms != null ? terms[k] : batch.r2[k];
+        }
+        double dx = ray.direction.x;
+        double dy = ray.direction.y;
+        double dz = ray.direction.z;
+        for (int j = 0; j < bound - start; j += SPECIES.length()) {
+            DoubleVector ex = center(g.cx, j, ray.getOrigin().x);
+            DoubleVector ey = center(g.cy, j, ray.getOrigin().y);
+            DoubleVector ez = center(g.cz, j, ray.getOrigin().z);
+            DoubleVector b = ex.mul(dx).add(ey.mul(dy)).add(ez.mul(dz));
+            DoubleVector c = DoubleVector.fromArray(SPECIES, g.terms, j);
+            if (terms == null) {
+                c = ex.mul(ex).add(ey.mul(ey)).add(ez.mul(ez)).sub(c);
+            }
+            DoubleVector discriminant = b.mul(b).sub(c);
+            VectorMask<Double> valid = discriminant.compare(VectorOperators.GE, 0);
+            if (!valid.anyTrue()) {
+                continue;
+            }
+            DoubleVector root = discriminant.lanewise(VectorOperators.SQRT);
+            DoubleVector minusB = b.neg();
+            DoubleVector near = minusB.sub(root);
+            DoubleVector far = minusB.add(root);
+            VectorMask<Double> nearHit = near.compare(VectorOperators.GT, Ray.EPSILON)
+                                             .and(near.compare(VectorOperators.LT, tMax));
+            VectorMask<Double> farHit = far.compare(VectorOperators.GT, Ray.EPSILON)
+                                           .and(far.compare(VectorOperators.LT, tMax));
+            VectorMask<Double> blocked = valid.and(nearHit.or(farHit));
+            if (blocked.anyTrue()) {
+                return start + j + blocked.firstTrue();
+            }
+        }
+        return scalar.findOccluder(batch, entries, bound, end, ray, tMax);
+    }
+
+    // squared distance from the origin to the centers less radius squared, cached if possible
+    private static DoubleVector term (SphereBatch batch, double[] terms, int k,
+                                      DoubleVector ex, DoubleVector ey, DoubleVector ez) {
+        if (terms != null) {
+            return DoubleVector.fromArray(SPECIES, terms, k);
+        }
+        DoubleVector r2 = DoubleVector.fromArray(SPECIES, batch.r2, k);
+        return ex.mul(ex).add(ey.mul(ey)).add(ez.mul(ez)).sub(r2);
+    }
+
+    // origin minus the given center coordinates
+    private static DoubleVector center (double[] coords, int k, double origin) {
+        return DoubleVector.broadcast(SPECIES, origin)
+                           .sub(DoubleVector.fromArray(SPECIES, coords, k));
+    }
+
+    /** The listed entries of a batch, copied next to each other for whole vector loads. */
+    private static class Gathered {
+        double[] cx = new double[0];
+        double[] cy = cx;
+        double[] cz = cx;
+        /** The origin terms of the entries, or their radii squared if the batch has none. */
+        double[] terms = cx;
+
+        // make room for the given number of entries
+        Gathered fit (int size) {
+            if (cx.length < size) {
+                cx = new double[size];
+                cy = new double[size];
+                cz = new double[size];
+                terms = new double[size];
+            }
+            return this;
+        }
+    }
+}
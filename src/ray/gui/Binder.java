@@ -0,0 +1,269 @@
+package ray.gui;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How the parser builds objects of one class: its zero argument constructor and the methods that
+ * take the values of child nodes, found once per class and shared by every parse.
+ *
+ * Binders for the classes of scenes are written out ahead of time by BinderGenerator, as plain
+ * code calling constructors and methods directly, so parsing them needs no reflection. Other
+ * classes, and any child node a generated binder does not know, are bound at run time: methods
+ * are then looked up by name ignoring case, as nodes are, and are called through method handles,
+ * which take boxed values for primitive parameters. Setting the system property
+ * ray.reflectiveBinders to true binds every class at run time.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class Binder {
+    /** True to ignore the generated binders. */
+    private static final boolean REFLECTIVE = Boolean.getBoolean("ray.reflectiveBinders");
+    /** The binder of every class used so far. */
+    private static final ClassValue<Binder> BINDERS = new ClassValue<Binder>() {
+        @Override
+        protected Binder computeValue (Class<?> c) {
+            Binder generated = REFLECTIVE ? null : GeneratedBinders.of(c);
+            return generated != null ? generated : new Binder(c);
+        }
+    };
+
+    /**
+     * Creates new instances of one class.
+     */
+    public interface Factory {
+        Object newInstance ();
+    }
+
+    /**
+     * A method taking the value of a child node.
+     */
+    public abstract static class Setter {
+        /** Name of the method, for messages. */
+        private final String name;
+        /** The type to parse the child node as, boxed if the method takes a primitive. */
+        private final Class<?> type;
+
+        /**
+         * @param name name of the method
+         * @param parameterType the type the method takes
+         */
+        protected Setter (String name, Class<?> parameterType) {
+            this.name = name;
+            type = boxed(parameterType);
+        }
+
+        /**
+         * Returns the type to parse the child node as.
+         */
+        public Class<?> getType () {
+            return type;
+        }
+
+        /**
+         * Call the method on the given object with the given value.
+         */
+        public void invoke (Object target, Object value) {
+            try {
+                set(target, value);
+            } catch (Throwable e) {
+                System.err.println("Error invoking the method " + name + ".");
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Call the method on the given object with the given value, of the type given by getType.
+         */
+        protected abstract void set (Object target, Object value) throws Throwable;
+    }
+
+    // a method found at run time
+    private static class MethodSetter extends Setter {
+        /** Calls the method with (target, value), both as Objects, ignoring any result. */
+        private final MethodHandle handle;
+
+        MethodSetter (Method method) {
+            super(method.getName(), parameterType(method));
+            try {
+                handle = MethodHandles.publicLookup().unreflect(method)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new Error("Cannot call the method " + method.getName() + ": " + e);
+            }
+        }
+
+        @Override
+        protected void set (Object target, Object value) throws Throwable {
+            handle.invokeExact(target, value);
+        }
+
+        private static Class<?> parameterType (Method method) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            if (parameterTypes.length != 1) {
+                throw new Error("Method " + method.getName() + " must take exactly one parameter.");
+            }
+            return parameterTypes[0];
+        }
+    }
+
+    /** The class bound. */
+    private final Class<?> type;
+    /** The first public method with each name, in lower case, found when first needed. */
+    private Map<String, Method> methods;
+    /** Setters already made, by the name of their node in lower case. */
+    private final Map<String, Setter> setters = new ConcurrentHashMap<>();
+    /** Types named by the type attribute of nodes of this class, by that name. */
+    private final Map<String, Class<?>> subtypes = new ConcurrentHashMap<>();
+    /** Creates a new instance, null until first used if bound at run time. */
+    private volatile Factory factory;
+
+    private Binder (Class<?> c) {
+        type = c;
+    }
+
+    /**
+     * Create a binder given its setters and subtypes by bind and bindSubtype, as generated
+     * binders are.
+     *
+     * @param factory creates instances of the class, null if it has none
+     */
+    Binder (Class<?> c, Factory factory) {
+        type = c;
+        this.factory = factory;
+    }
+
+    /**
+     * Use the given setter for child nodes with the given name, in lower case.
+     */
+    void bind (String childName, Setter setter) {
+        setters.put(childName, setter);
+    }
+
+    /**
+     * Use the given type for nodes of this class whose type attribute is the given name.
+     */
+    void bindSubtype (String className, Class<?> subtype) {
+        subtypes.put(className, subtype);
+    }
+
+    /**
+     * Returns the binder of the given class.
+     */
+    public static Binder of (Class<?> c) {
+        return BINDERS.get(c);
+    }
+
+    /**
+     * Returns the setter for child nodes with the given name: the method named set followed by
+     * that name or, failing that, add followed by it, ignoring case. Returns null if there is
+     * neither.
+     */
+    public Setter getSetter (String childName) {
+        String key = childName.toLowerCase(Locale.ROOT);
+        Setter result = setters.get(key);
+        if (result == null) {
+            Map<String, Method> methods = getMethods();
+            Method m = methods.get("set" + key);
+            if (m == null) {
+                m = methods.get("add" + key);
+            }
+            if (m == null) {
+                return null;
+            }
+            result = new MethodSetter(m);
+            setters.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the class named by the type attribute of a node of this class, which must extend
+     * or implement it. The name is either fully qualified or relative to the package of this
+     * class.
+     */
+    public Class<?> getSubtype (String className) {
+        Class<?> result = subtypes.get(className);
+        if (result == null) {
+            try {
+                // Try to look up class; if fail, try looking in package of given base type
+                try {
+                    result = Class.forName(className);
+                } catch (ClassNotFoundException e) {
+                    result = Class.forName(type.getPackage().getName() + "." + className);
+                }
+            } catch (ClassNotFoundException e) {
+                throw new Error("Class could not be found: " + className);
+            }
+            if (!type.isAssignableFrom(result)) {
+                throw new Error("Type " + className + " does not extend or implement " +
+                                type.getName());
+            }
+            subtypes.put(className, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new instance of the class, made by its zero argument constructor.
+     */
+    public Object newInstance () {
+        try {
+            Factory f = factory;
+            if (f == null) {
+                final MethodHandle c = MethodHandles.publicLookup()
+                    .findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+                f = new Factory() {
+                    @Override
+                    public Object newInstance () {
+                        try {
+                            return c.invokeExact();
+                        } catch (Throwable e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                factory = f;
+            }
+            return f.newInstance();
+        } catch (Throwable e) {
+            throw new Error("Error instantiating object of class: " + type.getName());
+        }
+    }
+
+    // the first public method with each name, in lower case
+    private synchronized Map<String, Method> getMethods () {
+        if (methods == null) {
+            methods = new HashMap<>();
+            for (Method m : type.getMethods()) {
+                String name = m.getName().toLowerCase(Locale.ROOT);
+                if (!methods.containsKey(name)) {
+                    methods.put(name, m);
+                }
+            }
+        }
+        return methods;
+    }
+
+    // the wrapper of a primitive type, parsed in its place
+    static Class<?> boxed (Class<?> c) {
+        if (!c.isPrimitive()) {
+            return c;
+        } else if (c == Integer.TYPE) {
+            return Integer.class;
+        } else if (c == Float.TYPE) {
+            return Float.class;
+        } else if (c == Double.TYPE) {
+            return Double.class;
+        } else {
+            throw new Error("Cannot parse primitives of type " + c);
+        }
+    }
+}
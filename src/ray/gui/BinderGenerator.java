@@ -0,0 +1,335 @@
+package ray.gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import ray.Scene;
+import ray.math.Tuple;
+
+/**
+ * Writes GeneratedBinders, the binders of every class a scene can be built from, as code that
+ * calls their constructors and methods directly. Run it whenever a class used in scenes gains,
+ * loses or changes a setter, with the classes compiled and the source directory as argument:
+ *
+ *     java -cp classes ray.gui.BinderGenerator src
+ *
+ * Starting from Scene, the classes bound are those taken by a setter, or an adder, of a class
+ * already bound, along with every class in the source directory that extends them. Each binder
+ * makes the same choices the run time lookup in Binder does; a child node whose method cannot be
+ * chosen without knowing the order in which the JVM lists methods is left to that lookup.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class BinderGenerator {
+    /** The file written, relative to the source directory. */
+    private static final String OUTPUT = "ray/gui/GeneratedBinders.java";
+
+    /** Concrete public classes found in the source directory, candidates for type attributes. */
+    private final List<Class<?>> sources = new ArrayList<>();
+    /** Classes to bind, by name so that the output is always in the same order. */
+    private final Map<String, Class<?>> bound = new TreeMap<>();
+    /** Simple names that may be used in the output, since no two imported classes share them. */
+    private final Map<String, Class<?>> imports = new HashMap<>();
+
+    public static void main (String[] args) throws IOException {
+        File root = new File(args.length > 0 ? args[0] : "src");
+        BinderGenerator generator = new BinderGenerator();
+        generator.findSources(root, "");
+        generator.bindFrom(Scene.class);
+        File output = new File(root, OUTPUT);
+        try (PrintWriter out = new PrintWriter(output, StandardCharsets.UTF_8.name())) {
+            generator.write(out);
+        }
+        System.out.println("Wrote binders for " + generator.bound.size() + " classes to " + output);
+    }
+
+    // load every public concrete class with a source file under the given directory
+    private void findSources (File directory, String packageName) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (f.isDirectory()) {
+                findSources(f, packageName + name + ".");
+            } else if (name.endsWith(".java")) {
+                String className = packageName + name.substring(0, name.length() - 5);
+                try {
+                    Class<?> c = Class.forName(className, false, getClass().getClassLoader());
+                    if (isConstructible(c)) {
+                        sources.add(c);
+                    }
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // not compiled, or needs modules this run lacks; it cannot be bound anyway
+                }
+            }
+        }
+        sources.sort(new Comparator<Class<?>>() {
+            @Override
+            public int compare (Class<?> a, Class<?> b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+    }
+
+    // bind the given class and everything that can be parsed under it
+    private void bindFrom (Class<?> root) {
+        Deque<Class<?>> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Class<?> c = queue.poll();
+            if (bound.containsKey(c.getName())) {
+                continue;
+            }
+            bound.put(c.getName(), c);
+            if (Parser.isText(c)) {
+                continue;
+            }
+            for (Method m : getSetters(c).values()) {
+                Class<?> type = Binder.boxed(m.getParameterTypes()[0]);
+                if (type.isPrimitive() || isPlain(type)) {
+                    continue;
+                }
+                queue.add(type);
+                for (Class<?> subtype : getSubtypes(type)) {
+                    queue.add(subtype);
+                }
+            }
+        }
+    }
+
+    // the method the run time lookup would use for each child node name that has one, by name
+    private Map<String, Method> getSetters (Class<?> c) {
+        Map<String, List<Method>> byName = new HashMap<>();
+        for (Method m : c.getMethods()) {
+            String name = m.getName().toLowerCase(Locale.ROOT);
+            if (!byName.containsKey(name)) {
+                byName.put(name, new ArrayList<Method>());
+            }
+            byName.get(name).add(m);
+        }
+        Map<String, Method> result = new TreeMap<>();
+        for (String name : byName.keySet()) {
+            String key;
+            if (name.startsWith("set")) {
+                key = name.substring(3);
+            } else if (name.startsWith("add") && !byName.containsKey("set" + name.substring(3))) {
+                key = name.substring(3);
+            } else {
+                continue;
+            }
+            // overloads would be chosen by the order of getMethods, which is unspecified
+            List<Method> methods = byName.get(name);
+            if (key.isEmpty() || methods.size() != 1) {
+                continue;
+            }
+            Method m = methods.get(0);
+            if (m.getParameterTypes().length != 1 || !isBindable(m.getParameterTypes()[0])) {
+                continue;
+            }
+            result.put(key, m);
+        }
+        return result;
+    }
+
+    // the classes from the sources that a node of the given type may name as its own
+    private List<Class<?>> getSubtypes (Class<?> type) {
+        List<Class<?>> result = new ArrayList<>();
+        for (Class<?> c : sources) {
+            if (type.isAssignableFrom(c)) {
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    private void write (PrintWriter out) {
+        importAll();
+        out.println("// Written by BinderGenerator, do not edit; run it again whenever the " +
+                    "setters of a");
+        out.println("// class used in scenes change.");
+        out.println("package ray.gui;");
+        out.println();
+        Set<String> names = new TreeSet<>();
+        for (Class<?> c : imports.values()) {
+            if (!c.getPackage().getName().equals("ray.gui") &&
+                !c.getPackage().getName().equals("java.lang")) {
+                names.add(c.getName());
+            }
+        }
+        String previous = null;
+        for (String name : names) {
+            String top = name.substring(0, name.indexOf('.'));
+            if (previous != null && !previous.equals(top)) {
+                out.println();
+            }
+            previous = top;
+            out.println("import " + name + ";");
+        }
+        out.println();
+        out.println("/**");
+        out.println(" * Binders for the classes used in scenes, which call their constructors " +
+                    "and methods directly.");
+        out.println(" */");
+        out.println("final class GeneratedBinders {");
+        out.println("    private GeneratedBinders () {");
+        out.println("    }");
+        out.println();
+        out.println("    /**");
+        out.println("     * Returns a new binder for the given class, null if there is none for " +
+                    "it here.");
+        out.println("     */");
+        out.println("    static Binder of (Class<?> c) {");
+        for (Class<?> c : bound.values()) {
+            out.println("        if (c == " + name(c) + ".class) {");
+            out.println("            return " + method(c) + "();");
+            out.println("        }");
+        }
+        out.println("        return null;");
+        out.println("    }");
+        for (Class<?> c : bound.values()) {
+            out.println();
+            writeBinder(out, c);
+        }
+        out.println("}");
+    }
+
+    private void writeBinder (PrintWriter out, Class<?> c) {
+        out.println("    private static Binder " + method(c) + " () {");
+        if (isConstructible(c)) {
+            out.println("        Binder b = new Binder(" + name(c) + ".class, " +
+                        "new Binder.Factory() {");
+            out.println("            @Override");
+            out.println("            public Object newInstance () {");
+            out.println("                return new " + name(c) + "();");
+            out.println("            }");
+            out.println("        });");
+        } else {
+            out.println("        Binder b = new Binder(" + name(c) + ".class, null);");
+        }
+        if (!Parser.isText(c)) {
+            Map<String, Method> setters = getSetters(c);
+            for (String key : setters.keySet()) {
+                Method m = setters.get(key);
+                Class<?> type = m.getParameterTypes()[0];
+                out.println("        b.bind(\"" + key + "\", new Binder.Setter(\"" + m.getName() +
+                            "\", " + name(type) + ".class) {");
+                out.println("            @Override");
+                out.println("            protected void set (Object target, Object value) {");
+                out.println("                ((" + name(c) + ")target)." + m.getName() + "(" +
+                            value(type) + ");");
+                out.println("            }");
+                out.println("        });");
+            }
+            for (Class<?> subtype : getSubtypes(c)) {
+                if (subtype.getPackage() == c.getPackage()) {
+                    out.println("        b.bindSubtype(\"" + subtype.getSimpleName() + "\", " +
+                                name(subtype) + ".class);");
+                }
+                out.println("        b.bindSubtype(\"" + subtype.getName() + "\", " +
+                            name(subtype) + ".class);");
+            }
+        }
+        out.println("        return b;");
+        out.println("    }");
+    }
+
+    // choose the classes that can be named by their simple names
+    private void importAll () {
+        List<Class<?>> used = new ArrayList<>(bound.values());
+        for (Class<?> c : bound.values()) {
+            if (!Parser.isText(c)) {
+                for (Method m : getSetters(c).values()) {
+                    used.add(Binder.boxed(m.getParameterTypes()[0]));
+                    used.add(m.getParameterTypes()[0]);
+                }
+                used.addAll(getSubtypes(c));
+            }
+        }
+        Set<String> clashes = new TreeSet<>();
+        for (Class<?> c : used) {
+            if (c.isPrimitive() || c.isArray()) {
+                continue;
+            }
+            Class<?> other = imports.get(c.getSimpleName());
+            if (other != null && other != c) {
+                clashes.add(c.getSimpleName());
+            }
+            imports.put(c.getSimpleName(), c);
+        }
+        for (String clash : clashes) {
+            imports.remove(clash);
+        }
+    }
+
+    // the name of the class in the output
+    private String name (Class<?> c) {
+        if (c.isArray()) {
+            return name(c.getComponentType()) + "[]";
+        }
+        if (c.isPrimitive() || imports.get(c.getSimpleName()) == c) {
+            return c.getSimpleName();
+        }
+        return c.getCanonicalName();
+    }
+
+    // the name of the method making the binder of the class
+    private String method (Class<?> c) {
+        return "bind" + (imports.get(c.getSimpleName()) == c ? c.getSimpleName()
+                                                              : c.getName().replace('.', '_'));
+    }
+
+    // the expression passing value to a method taking the given type
+    private String value (Class<?> type) {
+        Class<?> boxed = Binder.boxed(type);
+        if (type.isPrimitive()) {
+            return "((" + name(boxed) + ")value)." + type.getName() + "Value()";
+        }
+        return "(" + name(type) + ")value";
+    }
+
+    // true if values of the type can be parsed at all
+    private static boolean isBindable (Class<?> type) {
+        if (type.isPrimitive()) {
+            return type == Integer.TYPE || type == Float.TYPE || type == Double.TYPE;
+        }
+        return Modifier.isPublic(type.getModifiers()) &&
+               (!type.isArray() || type.getComponentType().isPrimitive());
+    }
+
+    // true for types parsed from text that need no binder of their own, as only tuples are made
+    // by one
+    private static boolean isPlain (Class<?> type) {
+        return Parser.isText(type) && !Tuple.class.isAssignableFrom(type);
+    }
+
+    // true if the class is public, concrete and has a public zero argument constructor
+    private static boolean isConstructible (Class<?> c) {
+        if (!Modifier.isPublic(c.getModifiers()) || c.isInterface() || c.isArray() ||
+            Modifier.isAbstract(c.getModifiers()) || c.isPrimitive() ||
+            (c.getEnclosingClass() != null && !Modifier.isStatic(c.getModifiers()))) {
+            return false;
+        }
+        try {
+            return Modifier.isPublic(c.getConstructor().getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,575 @@
+// Written by BinderGenerator, do not edit; run it again whenever the setters of a
+// class used in scenes change.
+package ray.gui;
+
+import java.io.File;
+
+import ray.Camera;
+import ray.Light;
+import ray.Scene;
+import ray.math.Color;
+import ray.math.Point;
+import ray.math.Vector;
+import ray.shader.Lambertian;
+import ray.shader.Phong;
+import ray.shader.Shader;
+import ray.surface.Box;
+import ray.surface.Group;
+import ray.surface.Instance;
+import ray.surface.Mesh;
+import ray.surface.Sphere;
+import ray.surface.SphereFlake;
+import ray.surface.Surface;
+import ray.surface.Triangle;
+
+/**
+ * Binders for the classes used in scenes, which call their constructors and methods directly.
+ */
+final class GeneratedBinders {
+    private GeneratedBinders () {
+    }
+
+    /**
+     * Returns a new binder for the given class, null if there is none for it here.
+     */
+    static Binder of (Class<?> c) {
+        if (c == Camera.class) {
+            return bindCamera();
+        }
+        if (c == Light.class) {
+            return bindLight();
+        }
+        if (c == Scene.class) {
+            return bindScene();
+        }
+        if (c == Color.class) {
+            return bindColor();
+        }
+        if (c == Point.class) {
+            return bindPoint();
+        }
+        if (c == Vector.class) {
+            return bindVector();
+        }
+        if (c == Lambertian.class) {
+            return bindLambertian();
+        }
+        if (c == Phong.class) {
+            return bindPhong();
+        }
+        if (c == Shader.class) {
+            return bindShader();
+        }
+        if (c == Box.class) {
+            return bindBox();
+        }
+        if (c == Group.class) {
+            return bindGroup();
+        }
+        if (c == Instance.class) {
+            return bindInstance();
+        }
+        if (c == Mesh.class) {
+            return bindMesh();
+        }
+        if (c == Sphere.class) {
+            return bindSphere();
+        }
+        if (c == SphereFlake.class) {
+            return bindSphereFlake();
+        }
+        if (c == Surface.class) {
+            return bindSurface();
+        }
+        if (c == Triangle.class) {
+            return bindTriangle();
+        }
+        return null;
+    }
+
+    private static Binder bindCamera () {
+        Binder b = new Binder(Camera.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Camera();
+            }
+        });
+        b.bind("position", new Binder.Setter("setPosition", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Camera)target).setPosition((Point)value);
+            }
+        });
+        b.bind("projdistance", new Binder.Setter("setprojDistance", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Camera)target).setprojDistance(((Double)value).doubleValue());
+            }
+        });
+        b.bind("projnormal", new Binder.Setter("setProjNormal", Vector.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Camera)target).setProjNormal((Vector)value);
+            }
+        });
+        b.bind("viewdir", new Binder.Setter("setViewDir", Vector.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Camera)target).setViewDir((Vector)value);
+            }
+        });
+        b.bind("viewheight", new Binder.Setter("setViewHeight", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Camera)target).setViewHeight(((Double)value).doubleValue());
+            }
+        });
+        b.bind("viewup", new Binder.Setter("setViewUp", Vector.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Camera)target).setViewUp((Vector)value);
+            }
+        });
+        b.bind("viewwidth", new Binder.Setter("setViewWidth", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Camera)target).setViewWidth(((Double)value).doubleValue());
+            }
+        });
+        b.bindSubtype("Camera", Camera.class);
+        b.bindSubtype("ray.Camera", Camera.class);
+        return b;
+    }
+
+    private static Binder bindLight () {
+        Binder b = new Binder(Light.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Light();
+            }
+        });
+        b.bind("color", new Binder.Setter("setColor", Color.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Light)target).setColor((Color)value);
+            }
+        });
+        b.bind("position", new Binder.Setter("setPosition", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Light)target).setPosition((Point)value);
+            }
+        });
+        b.bindSubtype("Light", Light.class);
+        b.bindSubtype("ray.Light", Light.class);
+        return b;
+    }
+
+    private static Binder bindScene () {
+        Binder b = new Binder(Scene.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Scene();
+            }
+        });
+        b.bind("camera", new Binder.Setter("setCamera", Camera.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Scene)target).setCamera((Camera)value);
+            }
+        });
+        b.bind("group", new Binder.Setter("addGroup", Group.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Scene)target).addGroup((Group)value);
+            }
+        });
+        b.bind("instance", new Binder.Setter("addInstance", Instance.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Scene)target).addInstance((Instance)value);
+            }
+        });
+        b.bind("light", new Binder.Setter("addLight", Light.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Scene)target).addLight((Light)value);
+            }
+        });
+        b.bind("lighterror", new Binder.Setter("setLightError", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Scene)target).setLightError(((Double)value).doubleValue());
+            }
+        });
+        b.bind("shader", new Binder.Setter("addShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Scene)target).addShader((Shader)value);
+            }
+        });
+        b.bind("surface", new Binder.Setter("addSurface", Surface.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Scene)target).addSurface((Surface)value);
+            }
+        });
+        b.bindSubtype("Scene", Scene.class);
+        b.bindSubtype("ray.Scene", Scene.class);
+        return b;
+    }
+
+    private static Binder bindColor () {
+        Binder b = new Binder(Color.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Color();
+            }
+        });
+        return b;
+    }
+
+    private static Binder bindPoint () {
+        Binder b = new Binder(Point.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Point();
+            }
+        });
+        return b;
+    }
+
+    private static Binder bindVector () {
+        Binder b = new Binder(Vector.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Vector();
+            }
+        });
+        return b;
+    }
+
+    private static Binder bindLambertian () {
+        Binder b = new Binder(Lambertian.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Lambertian();
+            }
+        });
+        b.bind("diffusecolor", new Binder.Setter("setDiffuseColor", Color.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Lambertian)target).setDiffuseColor((Color)value);
+            }
+        });
+        b.bindSubtype("Lambertian", Lambertian.class);
+        b.bindSubtype("ray.shader.Lambertian", Lambertian.class);
+        b.bindSubtype("Phong", Phong.class);
+        b.bindSubtype("ray.shader.Phong", Phong.class);
+        return b;
+    }
+
+    private static Binder bindPhong () {
+        Binder b = new Binder(Phong.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Phong();
+            }
+        });
+        b.bind("diffusecolor", new Binder.Setter("setDiffuseColor", Color.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Phong)target).setDiffuseColor((Color)value);
+            }
+        });
+        b.bind("exponent", new Binder.Setter("setExponent", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Phong)target).setExponent(((Double)value).doubleValue());
+            }
+        });
+        b.bind("specularcolor", new Binder.Setter("setSpecularColor", Color.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Phong)target).setSpecularColor((Color)value);
+            }
+        });
+        b.bindSubtype("Phong", Phong.class);
+        b.bindSubtype("ray.shader.Phong", Phong.class);
+        return b;
+    }
+
+    private static Binder bindShader () {
+        Binder b = new Binder(Shader.class, null);
+        b.bindSubtype("Lambertian", Lambertian.class);
+        b.bindSubtype("ray.shader.Lambertian", Lambertian.class);
+        b.bindSubtype("Phong", Phong.class);
+        b.bindSubtype("ray.shader.Phong", Phong.class);
+        return b;
+    }
+
+    private static Binder bindBox () {
+        Binder b = new Binder(Box.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Box();
+            }
+        });
+        b.bind("maxpt", new Binder.Setter("setMaxPt", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Box)target).setMaxPt((Point)value);
+            }
+        });
+        b.bind("minpt", new Binder.Setter("setMinPt", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Box)target).setMinPt((Point)value);
+            }
+        });
+        b.bind("shader", new Binder.Setter("setShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Box)target).setShader((Shader)value);
+            }
+        });
+        b.bindSubtype("Box", Box.class);
+        b.bindSubtype("ray.surface.Box", Box.class);
+        return b;
+    }
+
+    private static Binder bindGroup () {
+        Binder b = new Binder(Group.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Group();
+            }
+        });
+        b.bind("instance", new Binder.Setter("addInstance", Instance.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Group)target).addInstance((Instance)value);
+            }
+        });
+        b.bind("shader", new Binder.Setter("setShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Group)target).setShader((Shader)value);
+            }
+        });
+        b.bind("surface", new Binder.Setter("addSurface", Surface.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Group)target).addSurface((Surface)value);
+            }
+        });
+        b.bindSubtype("Group", Group.class);
+        b.bindSubtype("ray.surface.Group", Group.class);
+        return b;
+    }
+
+    private static Binder bindInstance () {
+        Binder b = new Binder(Instance.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Instance();
+            }
+        });
+        b.bind("group", new Binder.Setter("setGroup", Group.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Instance)target).setGroup((Group)value);
+            }
+        });
+        b.bind("rotatex", new Binder.Setter("setRotateX", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Instance)target).setRotateX(((Double)value).doubleValue());
+            }
+        });
+        b.bind("rotatey", new Binder.Setter("setRotateY", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Instance)target).setRotateY(((Double)value).doubleValue());
+            }
+        });
+        b.bind("rotatez", new Binder.Setter("setRotateZ", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Instance)target).setRotateZ(((Double)value).doubleValue());
+            }
+        });
+        b.bind("scale", new Binder.Setter("setScale", Vector.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Instance)target).setScale((Vector)value);
+            }
+        });
+        b.bind("shader", new Binder.Setter("setShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Instance)target).setShader((Shader)value);
+            }
+        });
+        b.bind("translate", new Binder.Setter("setTranslate", Vector.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Instance)target).setTranslate((Vector)value);
+            }
+        });
+        b.bindSubtype("Instance", Instance.class);
+        b.bindSubtype("ray.surface.Instance", Instance.class);
+        return b;
+    }
+
+    private static Binder bindMesh () {
+        Binder b = new Binder(Mesh.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Mesh();
+            }
+        });
+        b.bind("file", new Binder.Setter("setFile", File.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Mesh)target).setFile((File)value);
+            }
+        });
+        b.bind("shader", new Binder.Setter("setShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Mesh)target).setShader((Shader)value);
+            }
+        });
+        b.bindSubtype("Mesh", Mesh.class);
+        b.bindSubtype("ray.surface.Mesh", Mesh.class);
+        return b;
+    }
+
+    private static Binder bindSphere () {
+        Binder b = new Binder(Sphere.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Sphere();
+            }
+        });
+        b.bind("center", new Binder.Setter("setCenter", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Sphere)target).setCenter((Point)value);
+            }
+        });
+        b.bind("radius", new Binder.Setter("setRadius", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Sphere)target).setRadius(((Double)value).doubleValue());
+            }
+        });
+        b.bind("shader", new Binder.Setter("setShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Sphere)target).setShader((Shader)value);
+            }
+        });
+        b.bindSubtype("Sphere", Sphere.class);
+        b.bindSubtype("ray.surface.Sphere", Sphere.class);
+        return b;
+    }
+
+    private static Binder bindSphereFlake () {
+        Binder b = new Binder(SphereFlake.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new SphereFlake();
+            }
+        });
+        b.bind("center", new Binder.Setter("setCenter", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((SphereFlake)target).setCenter((Point)value);
+            }
+        });
+        b.bind("depth", new Binder.Setter("setDepth", int.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((SphereFlake)target).setDepth(((Integer)value).intValue());
+            }
+        });
+        b.bind("radius", new Binder.Setter("setRadius", double.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((SphereFlake)target).setRadius(((Double)value).doubleValue());
+            }
+        });
+        b.bind("shader", new Binder.Setter("setShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((SphereFlake)target).setShader((Shader)value);
+            }
+        });
+        b.bindSubtype("SphereFlake", SphereFlake.class);
+        b.bindSubtype("ray.surface.SphereFlake", SphereFlake.class);
+        return b;
+    }
+
+    private static Binder bindSurface () {
+        Binder b = new Binder(Surface.class, null);
+        b.bind("shader", new Binder.Setter("setShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Surface)target).setShader((Shader)value);
+            }
+        });
+        b.bindSubtype("Box", Box.class);
+        b.bindSubtype("ray.surface.Box", Box.class);
+        b.bindSubtype("Group", Group.class);
+        b.bindSubtype("ray.surface.Group", Group.class);
+        b.bindSubtype("Instance", Instance.class);
+        b.bindSubtype("ray.surface.Instance", Instance.class);
+        b.bindSubtype("Mesh", Mesh.class);
+        b.bindSubtype("ray.surface.Mesh", Mesh.class);
+        b.bindSubtype("Sphere", Sphere.class);
+        b.bindSubtype("ray.surface.Sphere", Sphere.class);
+        b.bindSubtype("SphereFlake", SphereFlake.class);
+        b.bindSubtype("ray.surface.SphereFlake", SphereFlake.class);
+        b.bindSubtype("Triangle", Triangle.class);
+        b.bindSubtype("ray.surface.Triangle", Triangle.class);
+        return b;
+    }
+
+    private static Binder bindTriangle () {
+        Binder b = new Binder(Triangle.class, new Binder.Factory() {
+            @Override
+            public Object newInstance () {
+                return new Triangle();
+            }
+        });
+        b.bind("a", new Binder.Setter("setA", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Triangle)target).setA((Point)value);
+            }
+        });
+        b.bind("b", new Binder.Setter("setB", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Triangle)target).setB((Point)value);
+            }
+        });
+        b.bind("c", new Binder.Setter("setC", Point.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Triangle)target).setC((Point)value);
+            }
+        });
+        b.bind("shader", new Binder.Setter("setShader", Shader.class) {
+            @Override
+            protected void set (Object target, Object value) {
+                ((Triangle)target).setShader((Shader)value);
+            }
+        });
+        b.bindSubtype("Triangle", Triangle.class);
+        b.bindSubtype("ray.surface.Triangle", Triangle.class);
+        return b;
+    }
+}
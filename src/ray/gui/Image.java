@@ -15,6 +15,7 @@ import java.io.File;
 import javax.imageio.ImageIO;
 
 import ray.math.Color;
+import ray.surface.Surface;
 
 /**
  * Basic image class packs all the image data into a single array of floats.
@@ -30,6 +31,13 @@ public class Image {
     protected int height;
     /** Data array* */
     protected float data[];
+    /** Whether each pixel holds its own exact sample (SAMPLED) or an INTERPOLATED value * */
+    protected byte state[];
+    /** Surface seen by the exact sample of each pixel, null for background * */
+    protected Surface surfaces[];
+
+    private static final byte SAMPLED = 1;
+    private static final byte INTERPOLATED = 2;
 
     /**
      * Create an empty image
@@ -90,6 +98,8 @@ public class Image {
         width = newWidth;
         height = newHeight;
         data = new float[width * height * 3];
+        state = new byte[width * height];
+        surfaces = new Surface[width * height];
     }
 
     /**
@@ -134,6 +144,61 @@ public class Image {
         data[idx + 2] = (float) inB;
     }
 
+    /**
+     * Returns true if the given pixel holds its own exact sample.
+     *
+     * @param inX inX coordinate
+     * @param inY inY Coordinate
+     */
+    public boolean isSampled (int inX, int inY) {
+        return state[calcIdx(inX, inY) / 3] == SAMPLED;
+    }
+
+    /**
+     * Returns true if the given pixel holds a value interpolated from nearby exact samples.
+     *
+     * @param inX inX coordinate
+     * @param inY inY Coordinate
+     */
+    public boolean isInterpolated (int inX, int inY) {
+        return state[calcIdx(inX, inY) / 3] == INTERPOLATED;
+    }
+
+    /**
+     * Returns the surface seen by the exact sample of the given pixel, null if it saw the
+     * background or the pixel does not hold an exact sample.
+     *
+     * @param inX inX coordinate
+     * @param inY inY Coordinate
+     */
+    public Surface getSampledSurface (int inX, int inY) {
+        return surfaces[calcIdx(inX, inY) / 3];
+    }
+
+    /**
+     * Mark the given pixel as holding its own exact sample, which saw the given surface. Pixels
+     * in different places can be marked from different threads.
+     *
+     * @param inX inX coordinate
+     * @param inY inY Coordinate
+     * @param surface the surface seen by the sample, null for background
+     */
+    public void setSampled (int inX, int inY, Surface surface) {
+        int idx = calcIdx(inX, inY) / 3;
+        state[idx] = SAMPLED;
+        surfaces[idx] = surface;
+    }
+
+    /**
+     * Mark the given pixel as holding an interpolated value.
+     *
+     * @param inX inX coordinate
+     * @param inY inY Coordinate
+     */
+    public void setInterpolated (int inX, int inY) {
+        state[calcIdx(inX, inY) / 3] = INTERPOLATED;
+    }
+
     /**
      * Computes the index in the data array.
      *
@@ -1,14 +1,21 @@
 package ray.gui;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.lang.reflect.Array;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.StringTokenizer;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -18,6 +25,8 @@ import org.w3c.dom.NodeList;
 
 import ray.math.Color;
 import ray.math.Tuple;
+import ray.shader.MaterialTable;
+import ray.shader.Shader;
 
 /**
  * Simple XML based scene parser. The parser works recursively on the nodes of the XML file. Each
@@ -32,14 +41,17 @@ import ray.math.Tuple;
  * of the node as the only argument. It is possible to specify that class type of the parsed node be
  * a subclass of the automatically determined class type by setting the "type" attribute in the
  * node. Additionally, nodes can be named with the "name" attribute. After they are
- * added to the parent, named nodes are added to a hash table internal to the parser. Later, other
+ * added to the parent, named nodes are added to a hash table kept for the file being parsed, so
+ * names do not carry over from one file to the next. Later, other
  * nodes can reference a named node by using a "ref" attribute. The value of the reference attribute
  * is used to index in the hash table and the previously stored node with the matching name is used
  * instead of a parsed value.
  *
  * There are special routines for explicitly parsing primitives, arrays of primitives, Tuple
- * (either Vector or Point or Color), Strings, Images, and Meshes. If a node is found, as above, to
+ * (either Vector or Point or Color), Strings, Images, and Files. If a node is found, as above, to
  * describe any of these types a special method is used instead of the above recursive procedure.
+ * Relative file names are resolved against the directory of the file being parsed, so a scene
+ * can refer to a mesh next to it, as in <file>bunny.obj</file>.
  *
  * An example is, hopefully, even clearer.  Consider a simple example
  * input:
@@ -80,6 +92,17 @@ import ray.math.Tuple;
  *     produced by parsing the above "white" shader is supplied
  *     instead.
  *
+ * Files of at least ray.streamingThreshold bytes (16 MB by default) are streamed with StAX,
+ * creating objects as their nodes are read instead of first loading the whole document into
+ * memory.
+ *
+ * How to create and fill in the objects of each class is looked up once, by a Binder shared by all
+ * parsers, rather than for every node.
+ *
+ * Shaders equal to one already parsed from the same file, such as the many shaders of the same
+ * color in generated scenes, are replaced by that one, so every surface of a material shares a
+ * single shader.
+ *
  * The parser is completely generic and can be used with new classes that you write for your
  * project. There are only two limitations. First, every object used as a node must have a zero
  * argument constructor so the parser an instantiate an empty object to add elements too. Second,
@@ -91,13 +114,25 @@ import ray.math.Tuple;
 public class Parser {
     /** Java document builder used to parse XML * */
     private static DocumentBuilder db;
-    /** Map of references to their names * */
-    public static HashMap<String, Object> references = new HashMap<String, Object>();
+    /** Named nodes of the file being parsed, by name */
+    private Map<String, Object> references;
+    /** Distinct shaders of the file being parsed */
+    private MaterialTable materials;
+    /** Directory of the file being parsed, against which relative file names are resolved */
+    private File directory;
+
+    /** Files at least this many bytes long are streamed rather than read into a document */
+    private static final long STREAMING_THRESHOLD =
+        Long.getLong("ray.streamingThreshold", 16 * 1024 * 1024);
+    /** StAX factory used to stream large files */
+    private final XMLInputFactory xif;
 
     /** Creates a new Parser. */
     public Parser () {
         try {
             db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            xif = XMLInputFactory.newFactory();
+            xif.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
         } catch (Exception e) {
             throw new Error("Error instantiating the parser.");
         }
@@ -111,7 +146,13 @@ public class Parser {
      * @return a new object of the given class
      */
     public Object parse (File file, Class<?> c) {
+        if (file.length() >= STREAMING_THRESHOLD) {
+            return parseStream(file, c);
+        }
         try {
+            directory = file.getAbsoluteFile().getParentFile();
+            references = new HashMap<String, Object>();
+            materials = new MaterialTable();
             Document doc = db.parse(file);
             Element root = doc.getDocumentElement();
             return parseObject(c, root);
@@ -122,6 +163,34 @@ public class Parser {
         }
     }
 
+    /**
+     * Parses a given file to generate an object of the given class, in one pass over the file
+     * without holding it in memory, so it can be much larger than the objects it describes.
+     * Nodes mean the same as in parse, which uses this for large files.
+     *
+     * @param filename the name of the XML file to parse
+     * @param c the class of the object to parse
+     * @return a new object of the given class
+     */
+    public Object parseStream (File file, Class<?> c) {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            directory = file.getAbsoluteFile().getParentFile();
+            references = new HashMap<String, Object>();
+            materials = new MaterialTable();
+            XMLStreamReader in = xif.createXMLStreamReader(file.toURI().toString(), stream);
+            try {
+                in.nextTag();
+                return parseObject(c, in);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            System.out.println("Exception occurred while parsing: " + file.getName());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * Parses text and generates either an Integer or a Double object, depending on given class.
      *
@@ -148,11 +217,11 @@ public class Parser {
      */
     private ArrayList<Object> parseArray (Class<?> componentType, String text) {
         ArrayList<Object> result = new ArrayList<Object>();
-        Scanner scan = new Scanner(text);
-        while (scan.hasNext()) {
-            result.add(parsePrimitive(componentType, scan.next()));
+        // much cheaper than a Scanner, which matters with thousands of tuples in a scene
+        StringTokenizer tokens = new StringTokenizer(text);
+        while (tokens.hasMoreTokens()) {
+            result.add(parsePrimitive(componentType, tokens.nextToken()));
         }
-        scan.close();
         return result;
     }
 
@@ -166,6 +235,9 @@ public class Parser {
     private Object parseObject (Class<?> c, String text) {
         if (c == String.class) {
             return text;
+        } else if (c == File.class) {
+            File file = new File(text.trim());
+            return file.isAbsolute() ? file : new File(directory, text.trim());
         } else if (c == Integer.class) {
             return new Integer(text);
         } else if (c == Double.class) {
@@ -183,7 +255,7 @@ public class Parser {
                 if (tempArray.size() != 3) {
                     throw new Error("Tuple is not of length 3 (" + tempArray.size() + ")");
                 }
-                Tuple result = (Tuple) c.newInstance();
+                Tuple result = (Tuple) Binder.of(c).newInstance();
                 result.x = ((Double)tempArray.get(0)).doubleValue();
                 result.y = ((Double)tempArray.get(1)).doubleValue();
                 result.z = ((Double)tempArray.get(2)).doubleValue();
@@ -196,23 +268,6 @@ public class Parser {
         }
     }
 
-    /**
-     * Return the Method object representing the string methodName in Class c. Return null if no
-     * such method if found.
-     *
-     * @param c the class to find a method in
-     * @param methodName the name of the method to find
-     * @return the Method object if a method is found, null otherwise
-     */
-    private Method findMethod (Class<?> c, String methodName) {
-        for (Method m : c.getMethods()) {
-            if (methodName.equalsIgnoreCase(m.getName())) {
-                return m;
-            }
-        }
-        return null;
-    }
-
     /**
      * Parse an object node. The node is assumed to be of Class c and is represented by Node n.
      *
@@ -226,46 +281,9 @@ public class Parser {
         Node typeAttribute = attributes.getNamedItem("type");
         Node nameAttribute = attributes.getNamedItem("name");
         Node refAttribute = attributes.getNamedItem("ref");
-        if (typeAttribute != null) {
-            String className = typeAttribute.getNodeValue();
-            try {
-                Class<?> possibleClass;
-                // Try to look up class: if it fails, try to look in package of given base type
-                try {
-                    possibleClass = Class.forName(className);
-                } catch (ClassNotFoundException e) {
-                    possibleClass = Class.forName(c.getPackage().getName() + "." + className);
-                }
-                if (c.isAssignableFrom(possibleClass)) {
-                    c = possibleClass; // Set current active class to user specified type
-                } else {
-                    throw new Error("Type " + className + " does not extend or implement " +
-                                    c.getName());
-                }
-            } catch (ClassNotFoundException e) {
-                throw new Error("Class could not be found: " + className);
-            }
-        }
         // If node specifies type, check if it is assignable to current output type
         if (typeAttribute != null) {
-            String className = typeAttribute.getNodeValue();
-            try {
-                Class<?> possibleClass;
-                // Try to look up class; if fail, try looking in package of given base type
-                try {
-                    possibleClass = Class.forName(className);
-                } catch (ClassNotFoundException e) {
-                    possibleClass = Class.forName(c.getPackage().getName() + "." + className);
-                }
-                if (c.isAssignableFrom(possibleClass)) {
-                    c = possibleClass; // Set current active class to user specified type
-                } else {
-                    throw new Error("Type " + className + " does not extend or implement " +
-                                    c.getName());
-                }
-            } catch (ClassNotFoundException e) {
-                throw new Error("Class could not be found: " + className);
-            }
+            c = Binder.of(c).getSubtype(typeAttribute.getNodeValue());
         }
         // Check that our current type is valid
         if (c.isArray() && !c.getComponentType().isPrimitive()) {
@@ -282,9 +300,7 @@ public class Parser {
             }
         }
         // Check for certain special classes of the current node
-        else if ((c.isArray() && c.getComponentType().isPrimitive()) || c == String.class ||
-                 c == Integer.class || c == Double.class || c == Color.class ||
-                 Tuple.class.isAssignableFrom(c) || Image.class.isAssignableFrom(c)) {
+        else if (isText(c)) {
 
             // Interpret the text values of all children nodes as objects
             for (int i = 0; i < children.getLength(); i++) {
@@ -299,11 +315,8 @@ public class Parser {
         // Otherwise the node represents a general object
         else {
             // Create one!
-            try {
-                resultingObject = c.newInstance();
-            } catch (Exception e) {
-                throw new Error("Error instantiating object of class: " + c.getName());
-            }
+            Binder binder = Binder.of(c);
+            resultingObject = binder.newInstance();
             // For each child
             for (int i = 0; i < children.getLength(); i++) {
                 Node child = children.item(i);
@@ -311,58 +324,134 @@ public class Parser {
                 if (child.getNodeType() != Node.ELEMENT_NODE) {
                     continue;
                 }
-                // Find the method to use for adding
-                Method foundMethod = null;
+                // Find the setXXX or addXXX method to use for adding
                 String childName = child.getNodeName();
-                // Check setXXX
-                foundMethod = findMethod(c, "set" + childName);
-                // If can't find setXXX method, look for addXXX method instead
-                if (foundMethod == null) {
-                    foundMethod = findMethod(c, "add" + childName);
-                }
+                Binder.Setter setter = binder.getSetter(childName);
                 // It is an error if no method was found
-                if (foundMethod == null) {
+                if (setter == null) {
                     throw new Error("Could not find a method to use to add " + childName +
                                     " to the class type " + c.getName() + ".");
                 }
-                // Check that the method has the right number of parameters
-                Class<?>[] parameterTypes = foundMethod.getParameterTypes();
-                if (parameterTypes.length != 1) {
-                    throw new Error("Method " + foundMethod.getName() +
-                                    " must take exactly one parameter.");
-                }
-                // If the type is primitive, switch to corresponding Object type
-                // to parse. Method invocation will automatically take care of
-                // converting Object types back into primitives.
-                Class<?> parameterType = parameterTypes[0];
-                if (parameterType.isPrimitive()) {
-                    if (parameterType == Integer.TYPE) {
-                        parameterType = Integer.class;
-                    } else if (parameterType == Float.TYPE) {
-                        parameterType = Float.class;
-                    } else if (parameterType == Double.TYPE) {
-                        parameterType = Double.class;
-                    } else {
-                        throw new Error("Cannot parse primitives of type " + parameterType);
+                // Recursively parse value of child element, primitives as their Object type
+                Object childValue = parseObject(setter.getType(), child);
+                // Call the setter method with the parsed value
+                setter.invoke(resultingObject, childValue);
+            }
+            resultingObject = intern(resultingObject);
+        }
+        // Place the object in the reference list
+        if (nameAttribute != null) {
+            String name = nameAttribute.getNodeValue();
+            references.put(name, resultingObject);
+        }
+        return resultingObject;
+    }
+
+    /**
+     * Parse an object node as parseObject(Class, Node) does, reading it from a stream positioned
+     * at its start tag and leaving the stream at its end tag.
+     *
+     * @param c Class type to read from the node
+     * @param in the stream to read the node from
+     * @return the object read
+     */
+    private Object parseObject (Class<?> c, XMLStreamReader in) throws XMLStreamException {
+        Object resultingObject = null;
+        String typeAttribute = in.getAttributeValue(null, "type");
+        String nameAttribute = in.getAttributeValue(null, "name");
+        String refAttribute = in.getAttributeValue(null, "ref");
+        // If node specifies type, check if it is assignable to current output type
+        if (typeAttribute != null) {
+            c = Binder.of(c).getSubtype(typeAttribute);
+        }
+        // Check that our current type is valid
+        if (c.isArray() && !c.getComponentType().isPrimitive()) {
+            throw new Error("Cannot parse arrays of non-primitive types");
+        }
+        // If the object is a reference, just return the value referenced
+        if (refAttribute != null) {
+            resultingObject = references.get(refAttribute);
+            if (resultingObject == null) {
+                throw new Error("Unresolved reference: " + refAttribute);
+            }
+            skipElement(in);
+        }
+        // Check for certain special classes of the current node
+        else if (isText(c)) {
+            // Interpret the text of the node as an object
+            StringBuilder text = null;
+            for (int event = in.next(); event != XMLStreamConstants.END_ELEMENT;
+                 event = in.next()) {
+                if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+                    event == XMLStreamConstants.SPACE) {
+                    if (text == null) {
+                        text = new StringBuilder();
                     }
+                    text.append(in.getTextCharacters(), in.getTextStart(), in.getTextLength());
+                } else {
+                    throw new Error("Found a non-text node while trying to parse a " + c.getName());
+                }
+            }
+            if (text != null) {
+                resultingObject = parseObject(c, text.toString());
+            }
+        }
+        // Otherwise the node represents a general object
+        else {
+            Binder binder = Binder.of(c);
+            resultingObject = binder.newInstance();
+            // For each child element, skipping anything else
+            for (int event = in.next(); event != XMLStreamConstants.END_ELEMENT;
+                 event = in.next()) {
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
                 }
-                // Recursively parse value of child element
-                Object childValue = parseObject(parameterType, child);
-                // Call the setter method with the parsed value;
-                try {
-                    // Invoke the setter method
-                    foundMethod.invoke(resultingObject, new Object[] { childValue });
-                } catch (Exception e) {
-                    System.err.println("Error invoking the method " + foundMethod.getName() + ".");
-                    e.printStackTrace();
+                String childName = in.getLocalName();
+                Binder.Setter setter = binder.getSetter(childName);
+                if (setter == null) {
+                    throw new Error("Could not find a method to use to add " + childName +
+                                    " to the class type " + c.getName() + ".");
                 }
+                Object childValue = parseObject(setter.getType(), in);
+                setter.invoke(resultingObject, childValue);
             }
+            resultingObject = intern(resultingObject);
         }
         // Place the object in the reference list
         if (nameAttribute != null) {
-            String name = nameAttribute.getNodeValue();
-            references.put(name, resultingObject);
+            references.put(nameAttribute, resultingObject);
         }
         return resultingObject;
     }
+
+    // the shader already parsed equal to the given object if it is a shader, else the object
+    private Object intern (Object parsed) {
+        if (parsed instanceof Shader) {
+            return materials.get(materials.intern((Shader)parsed));
+        }
+        return parsed;
+    }
+
+    // move the stream from the start tag of an element to its end tag, skipping its contents
+    private static void skipElement (XMLStreamReader in) throws XMLStreamException {
+        for (int depth = 1; depth > 0;) {
+            int event = in.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Returns true if nodes of the given class are parsed from their text rather than from child
+     * nodes.
+     */
+    static boolean isText (Class<?> c) {
+        return (c.isArray() && c.getComponentType().isPrimitive()) || c == String.class ||
+               c == Integer.class || c == Double.class || c == Color.class ||
+               c == File.class || Tuple.class.isAssignableFrom(c) ||
+               Image.class.isAssignableFrom(c);
+    }
 }
@@ -1,78 +1,93 @@
 package ray.gui;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
 import ray.RayTracer;
+import ray.RenderJob;
 
 /**
  * Renders image to the screen.
  *
- * Run as a separate thread so that it is updated while the algorithm is run.
+ * The image is rendered in the background so that it is updated while the algorithm is run.
+ * Executing the command again while a render is running stops it.
  *
  * @author rcd
  */
 public class Render extends Command {
     private static final int DELAY = 200;
+    private static final int MAX_PIXEL_SIZE = 64;
+    private static final int STRIDE_SIZE = 4;
 
     private Canvas canvas;
-    private RayTracer tracer;
-    private boolean isDone;
-    private Thread painter;
-    private Thread renderer;
+    private RenderJob job;
 
     public Render (Canvas viewer) {
         super("Render");
         canvas = viewer;
-        isDone = true;
     }
 
     @Override
-    @SuppressWarnings("deprecation")
     public void execute (RayTracer target) {
-        if (isDone) {
-            isDone = false;
-            tracer = target;
-            renderer = new Thread(new Renderer());
-            painter = new Thread(new Painter());
-            renderer.start();
-            painter.start();
+        if (job == null || job.isDone()) {
+            target.reset();
+            System.out.println("Render started:");
+            job = target.start(new Progress(), passes());
         } else {
-            renderer.stop();
-            painter.stop();
-            isDone = true;
+            job.cancel(false);
+            System.out.println("Render stopped.");
+        }
+    }
+
+    // render the image in passes of decreasing pixel size
+    private static int[] passes () {
+        int numPasses = 0;
+        for (int k = MAX_PIXEL_SIZE; k > 0; k /= STRIDE_SIZE) {
+            numPasses++;
         }
+        int[] result = new int[numPasses];
+        for (int k = MAX_PIXEL_SIZE, pass = 0; k > 0; k /= STRIDE_SIZE, pass++) {
+            result[pass] = k;
+        }
+        return result;
     }
 
     // repaint the canvas every so often to show progress
-    class Painter implements Runnable {
+    class Progress implements RenderJob.Listener {
+        private final long start = System.currentTimeMillis();
+
         @Override
-        public void run () {
-            try {
-                while (!isDone) {
-                    Thread.sleep(DELAY);
-                    canvas.repaint();
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        public void tileFinished (RenderJob job) {
+            canvas.repaint(DELAY);
         }
-    }
 
-    // render the image repeatedly as fast as possible
-    class Renderer implements Runnable {
-        static final int MAX_PIXEL_SIZE = 64;
-        static final int STRIDE_SIZE = 4;
-        static final int NUM_PASSES = MAX_PIXEL_SIZE / (STRIDE_SIZE * STRIDE_SIZE);        
         @Override
-        public void run () {
-            tracer.reset();
-            System.out.println("Render started:");
-            long start = System.currentTimeMillis();
-            for (int k = MAX_PIXEL_SIZE, pass = 1; k > 0; k /= STRIDE_SIZE, pass++) {
-                tracer.render(k);
-                System.out.println("  Finished pass " + pass + " of " + NUM_PASSES);
+        public void passFinished (RenderJob job, int pass) {
+            System.out.println("  Finished pass " + pass + " of " + job.getNumPasses());
+            canvas.repaint();
+        }
+
+        @Override
+        public void jobFinished (RenderJob job) {
+            try {
+                job.get();
+                long end = System.currentTimeMillis();
+                System.out.println("Completed in " + ((end - start) / 1000) + " seconds.");
+                long hits = job.getScene().getOccluderCacheHits();
+                long total = hits + job.getScene().getOccluderCacheMisses();
+                if (total > 0) {
+                    System.out.printf("Shadow occluder cache hits: %d of %d (%.1f%%)%n",
+                                      hits, total, 100.0 * hits / total);
+                }
+            } catch (CancellationException e) {
+                // stopped by the user, already reported
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("Render failed:");
+                e.getCause().printStackTrace();
             }
-            long end = System.currentTimeMillis();
-            System.out.println("Completed in " + ((end - start) / 1000) + " seconds.");
-            isDone = true;
+            canvas.repaint();
         }
     }
 }
@@ -0,0 +1,74 @@
+package ray.gui;
+
+import java.util.Arrays;
+
+import ray.math.Color;
+
+/**
+ * Keeps the statistics needed to add more samples to the pixels of an image.
+ *
+ * The running mean of each pixel is the pixel color in the image itself; this buffer holds the
+ * number of samples and the sum of squared differences from the mean of each pixel beside it, and
+ * updates all three with Welford's method as samples arrive. Every pixel starts out with the one
+ * sample already in the image.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class SampleBuffer {
+    private final Image image;
+    /** Number of samples for each pixel * */
+    private final int counts[];
+    /** Sum of squared differences from the mean, per pixel and channel * */
+    private final float m2[];
+
+    /**
+     * Create a buffer for the given image, counting its current contents as one sample per pixel.
+     */
+    public SampleBuffer (Image target) {
+        image = target;
+        counts = new int[image.width * image.height];
+        m2 = new float[image.data.length];
+        Arrays.fill(counts, 1);
+    }
+
+    /**
+     * @return number of samples taken in the given pixel
+     */
+    public int getCount (int inX, int inY) {
+        return counts[image.calcIdx(inX, inY) / 3];
+    }
+
+    /**
+     * Returns the estimated standard error of the mean of the given pixel, the largest over the
+     * three channels. This is 0 for pixels with a single sample.
+     */
+    public double getStandardError (int inX, int inY) {
+        int idx = image.calcIdx(inX, inY);
+        int n = counts[idx / 3];
+        if (n < 2) {
+            return 0;
+        }
+        float m = Math.max(m2[idx], Math.max(m2[idx + 1], m2[idx + 2]));
+        return Math.sqrt(m / (n - 1) / n);
+    }
+
+    /**
+     * Add a sample to the given pixel, updating its mean in the image. Pixels in different places
+     * can be updated from different threads.
+     */
+    public void addSample (Color sample, int inX, int inY) {
+        int idx = image.calcIdx(inX, inY);
+        int n = ++counts[idx / 3];
+        m2[idx + 0] += update(idx + 0, sample.x, n);
+        m2[idx + 1] += update(idx + 1, sample.y, n);
+        m2[idx + 2] += update(idx + 2, sample.z, n);
+    }
+
+    // move the mean in the given slot towards value, returns the increase in m2
+    private float update (int idx, double value, int n) {
+        float[] data = image.data;
+        double delta = value - data[idx];
+        data[idx] += (float)(delta / n);
+        return (float)(delta * (value - data[idx]));
+    }
+}
@@ -0,0 +1,132 @@
+package ray.math;
+
+/**
+ * An axis aligned bounding box given by its minimum and maximum corners.
+ *
+ * A newly created box is empty (its minimum is larger than its maximum), so expanding it by any
+ * point or box yields exactly that point or box.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class BoundingBox {
+    /** The corner with the smallest coordinates. */
+    public final Point min = new Point(Double.POSITIVE_INFINITY,
+                                       Double.POSITIVE_INFINITY,
+                                       Double.POSITIVE_INFINITY);
+    /** The corner with the largest coordinates. */
+    public final Point max = new Point(Double.NEGATIVE_INFINITY,
+                                       Double.NEGATIVE_INFINITY,
+                                       Double.NEGATIVE_INFINITY);
+
+    /**
+     * Default constructor. Produces an empty box.
+     */
+    public BoundingBox () {
+    }
+
+    /**
+     * Explicit constructor.
+     */
+    public BoundingBox (Point min, Point max) {
+        this.min.set(min);
+        this.max.set(max);
+    }
+
+    /**
+     * Grow this box so that it contains the given point.
+     */
+    public BoundingBox expand (Point pt) {
+        min.set(Math.min(min.x, pt.x), Math.min(min.y, pt.y), Math.min(min.z, pt.z));
+        max.set(Math.max(max.x, pt.x), Math.max(max.y, pt.y), Math.max(max.z, pt.z));
+        return this;
+    }
+
+    /**
+     * Grow this box so that it contains the other box.
+     */
+    public BoundingBox expand (BoundingBox other) {
+        min.set(Math.min(min.x, other.min.x), Math.min(min.y, other.min.y),
+                Math.min(min.z, other.min.z));
+        max.set(Math.max(max.x, other.max.x), Math.max(max.y, other.max.y),
+                Math.max(max.z, other.max.z));
+        return this;
+    }
+
+    /**
+     * Returns true if this box contains no points.
+     */
+    public boolean isEmpty () {
+        return min.x > max.x || min.y > max.y || min.z > max.z;
+    }
+
+    /**
+     * Returns the surface area of this box, 0 if it is empty.
+     */
+    public double surfaceArea () {
+        if (isEmpty()) {
+            return 0;
+        }
+        double dx = max.x - min.x;
+        double dy = max.y - min.y;
+        double dz = max.z - min.z;
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Slab test of a ray against a box stored as six values starting at box[b], minimum corner
+     * first, as in the flat arrays of a bounding volume hierarchy. The ray is given by its origin
+     * and the inverse of its direction.
+     *
+     * @return the distance at which the ray enters the box, or tMin if it is already inside at
+     *         tMin, or infinity if it is not inside the box anywhere between tMin and tMax
+     */
+    public static double enter (double[] box, int b, double ox, double oy, double oz,
+                                double ix, double iy, double iz, double tMin, double tMax) {
+        double t0 = (box[b] - ox) * ix;
+        double t1 = (box[b + 3] - ox) * ix;
+        double near = Math.min(t0, t1);
+        double far = Math.max(t0, t1);
+        t0 = (box[b + 1] - oy) * iy;
+        t1 = (box[b + 4] - oy) * iy;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+        t0 = (box[b + 2] - oz) * iz;
+        t1 = (box[b + 5] - oz) * iz;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+        near = Math.max(near, tMin);
+        far = Math.min(far, tMax);
+        return near <= far ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Slab test like enter, for the other end of the ray's path through the box.
+     *
+     * @return the distance at which the ray leaves the box, or infinity if it does not leave it
+     *         strictly between tMin and tMax
+     */
+    public static double exit (double[] box, int b, double ox, double oy, double oz,
+                               double ix, double iy, double iz, double tMin, double tMax) {
+        double t0 = (box[b] - ox) * ix;
+        double t1 = (box[b + 3] - ox) * ix;
+        double near = Math.min(t0, t1);
+        double far = Math.max(t0, t1);
+        t0 = (box[b + 1] - oy) * iy;
+        t1 = (box[b + 4] - oy) * iy;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+        t0 = (box[b + 2] - oz) * iz;
+        t1 = (box[b + 5] - oz) * iz;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+        return near <= far && far > tMin && far < tMax ? far : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString () {
+        return "min = " + min + "\nmax = " + max;
+    }
+}
@@ -0,0 +1,196 @@
+package ray.math;
+
+/**
+ * An affine transformation, stored as the top three rows of a 4x4 matrix.
+ *
+ * Points are transformed as columns (x, y, z, 1) and vectors as columns (x, y, z, 0), so only
+ * points are translated.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class Matrix {
+    /** The entries in row major order, four per row. */
+    private final double[] m = new double[12];
+
+    /**
+     * Default constructor. Produces the identity.
+     */
+    public Matrix () {
+        m[0] = m[5] = m[10] = 1;
+    }
+
+    /**
+     * Copy constructor.
+     */
+    public Matrix (Matrix other) {
+        System.arraycopy(other.m, 0, m, 0, m.length);
+    }
+
+    /**
+     * Explicit constructor, from the twelve entries of the top three rows in row major order.
+     */
+    public Matrix (double[] entries) {
+        if (entries.length != m.length) {
+            throw new Error("A matrix needs " + m.length + " entries, not " + entries.length);
+        }
+        System.arraycopy(entries, 0, m, 0, m.length);
+    }
+
+    /**
+     * Returns the twelve entries of the top three rows in row major order.
+     */
+    public double[] getEntries () {
+        return m.clone();
+    }
+
+    /**
+     * Returns a matrix that moves points by the given vector.
+     */
+    public static Matrix translation (Vector v) {
+        Matrix result = new Matrix();
+        result.m[3] = v.x;
+        result.m[7] = v.y;
+        result.m[11] = v.z;
+        return result;
+    }
+
+    /**
+     * Returns a matrix that scales each axis by the matching component of the given vector.
+     */
+    public static Matrix scaling (Vector v) {
+        Matrix result = new Matrix();
+        result.m[0] = v.x;
+        result.m[5] = v.y;
+        result.m[10] = v.z;
+        return result;
+    }
+
+    /**
+     * Returns a matrix that rotates counterclockwise about the given axis (0, 1 or 2 for x, y or z)
+     * by the given angle, when looking down the axis towards the origin.
+     */
+    public static Matrix rotation (int axis, double degrees) {
+        Matrix result = new Matrix();
+        double c = Math.cos(Math.toRadians(degrees));
+        double s = Math.sin(Math.toRadians(degrees));
+        // the two axes being rotated into each other
+        int i = (axis + 1) % 3;
+        int j = (axis + 2) % 3;
+        result.m[4 * i + i] = c;
+        result.m[4 * i + j] = -s;
+        result.m[4 * j + i] = s;
+        result.m[4 * j + j] = c;
+        return result;
+    }
+
+    /**
+     * Sets this matrix to other * this, which applies other after this transformation.
+     */
+    public Matrix leftCompose (Matrix other) {
+        double[] result = new double[12];
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 4; col++) {
+                double sum = col == 3 ? other.m[4 * row + 3] : 0;
+                for (int k = 0; k < 3; k++) {
+                    sum += other.m[4 * row + k] * m[4 * k + col];
+                }
+                result[4 * row + col] = sum;
+            }
+        }
+        System.arraycopy(result, 0, m, 0, m.length);
+        return this;
+    }
+
+    /**
+     * Returns the inverse of this transformation.
+     */
+    public Matrix inverse () {
+        // inverse of the linear part from its cofactors
+        double c00 = m[5] * m[10] - m[6] * m[9];
+        double c01 = m[6] * m[8] - m[4] * m[10];
+        double c02 = m[4] * m[9] - m[5] * m[8];
+        double det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+        if (det == 0) {
+            throw new Error("Cannot invert a singular transformation");
+        }
+        Matrix result = new Matrix();
+        double[] r = result.m;
+        r[0] = c00 / det;
+        r[1] = (m[2] * m[9] - m[1] * m[10]) / det;
+        r[2] = (m[1] * m[6] - m[2] * m[5]) / det;
+        r[4] = c01 / det;
+        r[5] = (m[0] * m[10] - m[2] * m[8]) / det;
+        r[6] = (m[2] * m[4] - m[0] * m[6]) / det;
+        r[8] = c02 / det;
+        r[9] = (m[1] * m[8] - m[0] * m[9]) / det;
+        r[10] = (m[0] * m[5] - m[1] * m[4]) / det;
+        // then undo the translation
+        for (int row = 0; row < 3; row++) {
+            r[4 * row + 3] = -(r[4 * row] * m[3] + r[4 * row + 1] * m[7] +
+                               r[4 * row + 2] * m[11]);
+        }
+        return result;
+    }
+
+    /**
+     * Sets result to the given point transformed by this matrix; the two may be the same.
+     */
+    public Point transform (Point p, Point result) {
+        result.set(m[0] * p.x + m[1] * p.y + m[2] * p.z + m[3],
+                   m[4] * p.x + m[5] * p.y + m[6] * p.z + m[7],
+                   m[8] * p.x + m[9] * p.y + m[10] * p.z + m[11]);
+        return result;
+    }
+
+    /**
+     * Sets result to the given vector transformed by this matrix; the two may be the same.
+     */
+    public Vector transform (Vector v, Vector result) {
+        result.set(m[0] * v.x + m[1] * v.y + m[2] * v.z,
+                   m[4] * v.x + m[5] * v.y + m[6] * v.z,
+                   m[8] * v.x + m[9] * v.y + m[10] * v.z);
+        return result;
+    }
+
+    /**
+     * Sets result to the given vector transformed by the transpose of this matrix, ignoring
+     * translation; the two may be the same. Normals are transformed this way by the inverse.
+     */
+    public Vector transposeTransform (Vector v, Vector result) {
+        result.set(m[0] * v.x + m[4] * v.y + m[8] * v.z,
+                   m[1] * v.x + m[5] * v.y + m[9] * v.z,
+                   m[2] * v.x + m[6] * v.y + m[10] * v.z);
+        return result;
+    }
+
+    /**
+     * Returns the smallest axis aligned box containing the given box once transformed.
+     */
+    public BoundingBox transform (BoundingBox box) {
+        BoundingBox result = new BoundingBox();
+        if (box.isEmpty()) {
+            return result;
+        }
+        Point corner = new Point();
+        for (int i = 0; i < 8; i++) {
+            corner.set((i & 1) == 0 ? box.min.x : box.max.x,
+                       (i & 2) == 0 ? box.min.y : box.max.y,
+                       (i & 4) == 0 ? box.min.z : box.max.z);
+            result.expand(transform(corner, corner));
+        }
+        return result;
+    }
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString () {
+        StringBuilder result = new StringBuilder();
+        for (int row = 0; row < 3; row++) {
+            result.append(m[4 * row]).append(' ').append(m[4 * row + 1]).append(' ')
+                  .append(m[4 * row + 2]).append(' ').append(m[4 * row + 3]).append('\n');
+        }
+        return result.toString();
+    }
+}
@@ -19,6 +19,15 @@ public class Ray {
     /** The normalized direction in which the ray travels. */
     public Vector direction;
 
+    /** Origin id of rays that do not start at one of the scene's shared origins. */
+    public static final int NO_ORIGIN = -1;
+    /**
+     * Which of the scene's shared origins, the camera or a light, this ray starts at, so that
+     * surfaces can look up what they precomputed for that point. Copies do not keep it, since
+     * their origin may then be changed.
+     */
+    public int originId = NO_ORIGIN;
+
     /**
      * Default constructor.
      */
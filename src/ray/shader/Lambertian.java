@@ -1,11 +1,15 @@
 package ray.shader;
 
+import java.util.List;
+import java.util.Objects;
+
+import ray.Light;
 import ray.Scene;
 import ray.math.Color;
 import ray.math.Point;
 import ray.math.Ray;
 import ray.math.Vector;
-import ray.surface.Surface;
+import ray.surface.Hit;
 
 
 /**
@@ -24,38 +28,66 @@ public class Lambertian implements Shader {
         diffuseColor.set(inDiffuseColor);
     }
 
+    public Color getDiffuseColor () {
+        return diffuseColor;
+    }
+
 
     @Override
-	public Color shade (Point intersectPt, Surface surface, Scene scene) {
-		// TODO: calculate the intensity of the light along this ray
+    public Color shade (Hit hit, Scene scene) {
+        return diffuse(hit, scene, scene.getLights(hit.point, hit.normal));
+    }
+
+    /**
+     * Returns the light from the given lights scattered at the hit point, leaving out the lights
+     * whose view of the point is blocked.
+     */
+    protected Color diffuse (Hit hit, Scene scene, List<Light> lights) {
         Color currentColor = new Color(0, 0, 0);
-		for(int i = 0; i < scene.getLights().size(); i++){
-            boolean blocked = false;
-            Color diffuse = new Color(diffuseColor);
-			Vector l = scene.getLights().get(i).position.sub(intersectPt);
-			Color intensity = new Color (scene.getLights().get(i).color);
-			Vector n = surface.getNormal(intersectPt);
-			double max = Math.max(0.0, (l.normalize()).dot(n));
-			Ray r = new Ray(scene.getLights().get(i).position, l);
-			double check = r.getOrigin().distance(intersectPt);
-			for(Surface s : scene.getSurfaces()){
-				if(!s.equals(surface) && s.intersects(r)){
-					double[] intersections = s.getIntersection(r);
-					if(intersections != null && intersections.length != 0) {
-						for(int j = 0; j < intersections.length; j++){
-							double dist = r.getOrigin().distance(r.evaluate(intersections[j]));
-							if(dist <= check){
-                                blocked = true;
-							}
-						}
-					}
-				}
-			}
-            if(!blocked) {
-                Color temp = diffuse.scale(intensity.scale(max));
+        Point intersectPt = hit.point;
+        Vector n = hit.normal;
+        for (Light light : lights) {
+            Vector l = light.position.sub(intersectPt);
+            double check = l.length();
+            double max = Math.max(0.0, (l.normalize()).dot(n));
+            // facing away from the light, so there is nothing to shadow
+            if (max == 0.0) {
+                continue;
+            }
+            // cast the shadow ray from the light towards the point, stopping just short of it
+            Ray r = new Ray(light.position, new Vector(l).negate());
+            r.originId = light.originId;
+            if (!scene.isOccluded(r, check - Ray.EPSILON)) {
+                Color intensity = new Color(light.color);
+                Color temp = new Color(diffuseColor).scale(intensity.scale(max));
                 currentColor.add(temp);
             }
-		}
-		return currentColor;
-	}
-}
\ No newline at end of file
+        }
+        return currentColor;
+    }
+
+    /**
+     * Returns true if the given object is a shader of the same class with the same parameters,
+     * which shades every hit exactly as this one does.
+     */
+    @Override
+    public boolean equals (Object other) {
+        return other != null && other.getClass() == getClass() &&
+               same(diffuseColor, ((Lambertian)other).diffuseColor);
+    }
+
+    @Override
+    public int hashCode () {
+        return hash(diffuseColor);
+    }
+
+    // true if the colors have the same components, compared as Double.equals does
+    protected static boolean same (Color a, Color b) {
+        return Double.compare(a.x, b.x) == 0 && Double.compare(a.y, b.y) == 0 &&
+               Double.compare(a.z, b.z) == 0;
+    }
+
+    protected static int hash (Color c) {
+        return Objects.hash(c.x, c.y, c.z);
+    }
+}
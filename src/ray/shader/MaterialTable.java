@@ -0,0 +1,49 @@
+package ray.shader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The distinct shaders of a scene, each numbered by a small id.
+ *
+ * Shaders that are equal, having the same type and parameters, are stored once and share an id,
+ * so a scene declaring one shader per surface only keeps as many as it has different materials.
+ * Shaders must not be changed once they have been added.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class MaterialTable {
+    /** The shaders, by id. */
+    private final List<Shader> materials = new ArrayList<>();
+    /** The id of each shader. */
+    private final Map<Shader, Integer> ids = new HashMap<>();
+
+    /**
+     * Returns the id of the shader equal to the given one, adding it if there is none yet.
+     */
+    public int intern (Shader shader) {
+        Integer id = ids.get(shader);
+        if (id == null) {
+            id = materials.size();
+            materials.add(shader);
+            ids.put(shader, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the shader with the given id.
+     */
+    public Shader get (int id) {
+        return materials.get(id);
+    }
+
+    /**
+     * Returns the number of distinct shaders.
+     */
+    public int size () {
+        return materials.size();
+    }
+}
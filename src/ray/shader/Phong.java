@@ -1,10 +1,13 @@
 package ray.shader;
 
+import java.util.List;
+
+import ray.Light;
 import ray.Scene;
 import ray.math.Color;
 import ray.math.Point;
 import ray.math.Vector;
-import ray.surface.Surface;
+import ray.surface.Hit;
 
 
 /**
@@ -32,24 +35,53 @@ public class Phong extends Lambertian {
         this.exponent = exponent;
     }
 
+    public Color getSpecularColor () {
+        return specularColor;
+    }
+
+    public double getExponent () {
+        return exponent;
+    }
+
 
     @Override
-    public Color shade (Point intersectPt, Surface surface, Scene scene) {
-        // TODO: calculate the intensity of the light along this ray
-        Color ambient = new Color(AMBIENT_LIGHT_COLOR.scale(AMBIENT_LIGHT));
+    public Color shade (Hit hit, Scene scene) {
+        Color ambient = new Color(AMBIENT_LIGHT_COLOR).scale(AMBIENT_LIGHT);
+        // clusters of lights only bound the diffuse term, so highlights are shaded with every
+        // light, which costs no shadow rays
+        return specular(hit, scene, scene.getLights())
+            .add(diffuse(hit, scene, scene.getLights(hit.point, hit.normal))).add(ambient);
+    }
+
+    /**
+     * Returns the light from the given lights reflected at the hit point towards the camera.
+     */
+    protected Color specular (Hit hit, Scene scene, List<Light> lights) {
         Color currentColor = new Color(0, 0, 0);
-        for(int i = 0; i < scene.getLights().size(); i++) {
+        Point intersectPt = hit.point;
+        for (Light light : lights) {
             Color specular = new Color(specularColor);
-            Vector l = new Vector(scene.getLights().get(i).position.sub(intersectPt).normalize());
-            Vector n = new Vector(surface.getNormal(intersectPt));
+            Vector l = new Vector(light.position.sub(intersectPt).normalize());
+            Vector n = new Vector(hit.normal);
             Vector v = new Vector(scene.getCamera().viewPoint.sub(intersectPt).normalize());
             Vector h = l.add(v);
             Vector half = h.scale(1.0 / h.length());
             double max = Math.max(0.0, Math.pow(half.dot(n), exponent));
-            Color intensity = new Color (scene.getLights().get(i).color);
+            Color intensity = new Color(light.color);
             Color temp = specular.scale(intensity.scale(max));
             currentColor.add(temp);
         }
-        return currentColor.add(super.shade(intersectPt, surface, scene)).add(ambient);
+        return currentColor;
+    }
+
+    @Override
+    public boolean equals (Object other) {
+        return super.equals(other) && same(specularColor, ((Phong)other).specularColor) &&
+               Double.compare(exponent, ((Phong)other).exponent) == 0;
+    }
+
+    @Override
+    public int hashCode () {
+        return 31 * (31 * super.hashCode() + hash(specularColor)) + Double.hashCode(exponent);
     }
-}
\ No newline at end of file
+}
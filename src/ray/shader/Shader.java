@@ -2,8 +2,7 @@ package ray.shader;
 
 import ray.Scene;
 import ray.math.Color;
-import ray.math.Point;
-import ray.surface.Surface;
+import ray.surface.Hit;
 
 /**
  * This interface specifies what is necessary for an object to be a material.
@@ -19,11 +18,10 @@ public interface Shader {
     public static final Color AMBIENT_LIGHT_COLOR = new Color(1, 1, 1);
 
     /**
-     * Returns color of the given point on the given surface in the scene.
+     * Returns color of the hit point on the hit surface in the scene.
      *
-     * @param intersectPt point on the surface where a ray intersected
-     * @param surface surface for which the color is being calculated 
+     * @param hit closest hit along a ray, with its point and normal filled in
      * @param scene contains all the lights and other surfaces available
      */
-    public Color shade (Point intersectPt, Surface surface, Scene scene);
+    public Color shade (Hit hit, Scene scene);
 }
@@ -0,0 +1,101 @@
+package ray.surface;
+
+import ray.math.BoundingBox;
+import ray.math.Point;
+import ray.math.Ray;
+import ray.math.Vector;
+
+/**
+ * An axis aligned box, given by its minimum and maximum corners.
+ *
+ * Rays are intersected with the same slab test the bounding volume hierarchy uses for culling,
+ * so no objects are created while tracing.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class Box extends Surface {
+    // These fields are read in from the input file.
+    /** The corner with the smallest coordinates. */
+    protected final Point minPt = new Point();
+    /** The corner with the largest coordinates. */
+    protected final Point maxPt = new Point();
+
+    /** The corners as six values, minimum first, for the slab test. */
+    private final double[] slabs = new double[6];
+
+    // PARSER METHODS
+    public void setMinPt (Point minPt) {
+        this.minPt.set(minPt);
+        slabs[0] = minPt.x;
+        slabs[1] = minPt.y;
+        slabs[2] = minPt.z;
+    }
+
+    public void setMaxPt (Point maxPt) {
+        this.maxPt.set(maxPt);
+        slabs[3] = maxPt.x;
+        slabs[4] = maxPt.y;
+        slabs[5] = maxPt.z;
+    }
+
+    public Point getMinPt () {
+        return minPt;
+    }
+
+    public Point getMaxPt () {
+        return maxPt;
+    }
+
+
+    @Override
+    public boolean intersect (Ray ray, Hit hit) {
+        return hit.record(distance(ray, hit.tMin, hit.tMax), this);
+    }
+
+    @Override
+    public boolean occludes (Ray ray, double tMax) {
+        return distance(ray, Ray.EPSILON, tMax) < tMax;
+    }
+
+    /**
+     * Returns the distance to the first point on the sides of this box between tMin and tMax,
+     * infinity if there is none.
+     */
+    private double distance (Ray ray, double tMin, double tMax) {
+        Point o = ray.getOrigin();
+        Vector d = ray.direction;
+        double ix = 1 / d.x;
+        double iy = 1 / d.y;
+        double iz = 1 / d.z;
+        double t = BoundingBox.enter(slabs, 0, o.x, o.y, o.z, ix, iy, iz, tMin, tMax);
+        if (t == tMin) {
+            // inside the box at tMin, so the side hit is the one where the ray leaves
+            t = BoundingBox.exit(slabs, 0, o.x, o.y, o.z, ix, iy, iz, tMin, tMax);
+        }
+        return t;
+    }
+
+    @Override
+    public void computeNormal (Hit hit) {
+        // the side closest to the point
+        Point p = hit.point;
+        int side = 0;
+        double closest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < 6; i++) {
+            double coord = i % 3 == 0 ? p.x : i % 3 == 1 ? p.y : p.z;
+            double distance = Math.abs(coord - slabs[i]);
+            if (distance < closest) {
+                closest = distance;
+                side = i;
+            }
+        }
+        double sign = side < 3 ? -1 : 1;
+        hit.normal.set(side % 3 == 0 ? sign : 0, side % 3 == 1 ? sign : 0,
+                       side % 3 == 2 ? sign : 0);
+    }
+
+    @Override
+    public BoundingBox getBounds () {
+        return new BoundingBox(minPt, maxPt);
+    }
+}
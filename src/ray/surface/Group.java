@@ -0,0 +1,93 @@
+package ray.surface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ray.accel.RayPacket;
+import ray.accel.SurfaceBVH;
+import ray.math.BoundingBox;
+import ray.math.Ray;
+import ray.shader.MaterialTable;
+
+/**
+ * A named collection of surfaces, with its own bounding volume hierarchy, that can be placed in
+ * the scene any number of times by instances.
+ *
+ * The surfaces and their hierarchy are stored once no matter how many instances use the group,
+ * and groups may themselves contain instances of other groups.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class Group extends Surface {
+    /** The surfaces of the group. */
+    private final List<Surface> surfaces = new ArrayList<Surface>();
+    /** Hierarchy over the surfaces, built when the group is initialized. */
+    private SurfaceBVH tree;
+
+    // PARSER METHODS
+    public void addSurface (Surface toAdd) {
+        surfaces.add(toAdd);
+        tree = null;
+    }
+
+    public void addInstance (Instance toAdd) {
+        addSurface(toAdd);
+    }
+
+
+    public List<Surface> getSurfaces () {
+        return surfaces;
+    }
+
+    @Override
+    public boolean intersect (Ray ray, Hit hit) {
+        return tree.intersect(ray, hit);
+    }
+
+    @Override
+    public void intersect (RayPacket packet) {
+        tree.intersect(packet);
+    }
+
+    @Override
+    public boolean occludes (Ray ray, double tMax) {
+        return tree.occludes(ray, tMax);
+    }
+
+    /**
+     * Does nothing, since hits are recorded on the surfaces of the group rather than on it.
+     */
+    @Override
+    public void computeNormal (Hit hit) {
+    }
+
+    /**
+     * Initializes the surfaces and builds their hierarchy, once however many instances share
+     * this group.
+     */
+    @Override
+    public void initialize () {
+        if (tree == null) {
+            for (Surface s : surfaces) {
+                s.initialize();
+            }
+            tree = new SurfaceBVH(surfaces);
+        }
+    }
+
+    /**
+     * Interns the shaders of the surfaces only, since hits are recorded on them rather than on
+     * the group.
+     */
+    @Override
+    public void internMaterials (MaterialTable materials) {
+        for (Surface s : surfaces) {
+            s.internMaterials(materials);
+        }
+    }
+
+    @Override
+    public BoundingBox getBounds () {
+        return tree.getBounds();
+    }
+}
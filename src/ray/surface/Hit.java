@@ -0,0 +1,104 @@
+package ray.surface;
+
+import ray.math.Point;
+import ray.math.Ray;
+import ray.math.Vector;
+
+/**
+ * Records the closest intersection found so far along a ray.
+ *
+ * Only hits at a distance strictly between tMin and tMax count. Each time a closer hit is
+ * recorded, tMax shrinks to its distance, so every later test only looks for closer surfaces and
+ * tMax ends up holding the distance to the closest one. Ray directions are normalized, so these
+ * distances are also the t values along the ray.
+ *
+ * Once the closest hit is known, the point and normal are filled in for shading.
+ *
+ * A single record can be reset and reused for any number of rays.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class Hit {
+    /** Value of material when the material is that of surface. */
+    public static final int NO_MATERIAL = -1;
+
+    /** Hits this close to the ray origin are ignored. */
+    public double tMin;
+    /** Hits this far from the ray origin are ignored; the closest hit once one is recorded. */
+    public double tMax;
+    /** The closest surface hit, null if none has been hit. */
+    public Surface surface;
+    /** Which part of the surface was hit, such as a triangle of a mesh, or -1. */
+    public int primitive;
+    /** Material to use instead of the one of surface, as for a surface inside an instance. */
+    public int material;
+    /** Where the ray hit the surface, only valid during shading. */
+    public final Point point = new Point();
+    /** Normal to the surface at point, only valid during shading unless set by an instance. */
+    public final Vector normal = new Vector();
+
+    /**
+     * Create an empty record covering the whole ray.
+     */
+    public Hit () {
+        reset();
+    }
+
+    /**
+     * Forget any recorded hit and cover the whole ray again.
+     */
+    public Hit reset () {
+        return reset(Ray.EPSILON, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Forget any recorded hit and only accept hits between the given distances.
+     */
+    public Hit reset (double tMin, double tMax) {
+        this.tMin = tMin;
+        this.tMax = tMax;
+        surface = null;
+        primitive = -1;
+        material = NO_MATERIAL;
+        return this;
+    }
+
+    /**
+     * Record a hit with the given surface if t is inside the current interval.
+     *
+     * @return true if the hit was recorded
+     */
+    public boolean record (double t, Surface hitSurface) {
+        return record(t, hitSurface, -1);
+    }
+
+    /**
+     * Record a hit with the given part of a surface if t is inside the current interval.
+     *
+     * @return true if the hit was recorded
+     */
+    public boolean record (double t, Surface hitSurface, int hitPrimitive) {
+        if (t > tMin && t < tMax) {
+            tMax = t;
+            surface = hitSurface;
+            primitive = hitPrimitive;
+            material = NO_MATERIAL;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the id of the material of the closest hit, among the scene's materials.
+     */
+    public int getMaterial () {
+        return material != NO_MATERIAL ? material : surface.getMaterial();
+    }
+
+    /**
+     * Returns true if a hit has been recorded.
+     */
+    public boolean isHit () {
+        return surface != null;
+    }
+}
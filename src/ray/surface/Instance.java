@@ -0,0 +1,192 @@
+package ray.surface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ray.math.BoundingBox;
+import ray.math.Matrix;
+import ray.math.Ray;
+import ray.math.Vector;
+import ray.shader.MaterialTable;
+
+/**
+ * A group placed in the scene with a transformation.
+ *
+ * Rays are moved into the group's own space and traced through its hierarchy, so an instance only
+ * costs a matrix, however large the group. The transformations given are applied to the group in
+ * the order they appear; for example
+ *
+ * <instance>
+ *   <group ref="flake" />
+ *   <scale>0.5 0.5 0.5</scale>
+ *   <rotateZ>90</rotateZ>
+ *   <translate>0 1.5 0</translate>
+ * </instance>
+ *
+ * shrinks the group, turns it about the z axis and then moves it up.
+ *
+ * Hits inside the group are recorded as hits on the instance, with the normal already transformed
+ * and the material of the surface hit inside the group.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class Instance extends Surface {
+    /** The group being placed. */
+    protected Group group;
+    /** Transformation from the group's space to the scene. */
+    protected final Matrix toWorld = new Matrix();
+    /** Transformation from the scene to the group's space. */
+    protected Matrix toObject = new Matrix();
+    /** Rays moved into the group's space, kept for each thread so that none are allocated. */
+    private static final ThreadLocal<LocalRays> LOCAL_RAYS = new ThreadLocal<LocalRays>() {
+        @Override
+        protected LocalRays initialValue () {
+            return new LocalRays();
+        }
+    };
+
+    // PARSER METHODS
+    public void setGroup (Group group) {
+        this.group = group;
+    }
+
+    public void setTranslate (Vector offset) {
+        transform(Matrix.translation(offset));
+    }
+
+    public void setScale (Vector factors) {
+        transform(Matrix.scaling(factors));
+    }
+
+    public void setRotateX (double degrees) {
+        transform(Matrix.rotation(0, degrees));
+    }
+
+    public void setRotateY (double degrees) {
+        transform(Matrix.rotation(1, degrees));
+    }
+
+    public void setRotateZ (double degrees) {
+        transform(Matrix.rotation(2, degrees));
+    }
+
+
+    public Group getGroup () {
+        return group;
+    }
+
+    /**
+     * Returns the transformation from the group's space to the scene's.
+     */
+    public Matrix getTransform () {
+        return new Matrix(toWorld);
+    }
+
+    /**
+     * Apply the given transformation after those already given.
+     */
+    public void transform (Matrix m) {
+        toWorld.leftCompose(m);
+        toObject = toWorld.inverse();
+    }
+
+    @Override
+    public void initialize () {
+        group.initialize();
+    }
+
+    /**
+     * Interns the shaders of the group only, since hits on an instance are shaded with the
+     * material of the surface hit inside it.
+     */
+    @Override
+    public void internMaterials (MaterialTable materials) {
+        group.internMaterials(materials);
+    }
+
+    @Override
+    public boolean intersect (Ray ray, Hit hit) {
+        LocalRays rays = LOCAL_RAYS.get();
+        Ray local = rays.push();
+        try {
+            // distances in the group's space are this many times those in the scene
+            double scale = moveToGroup(ray, local);
+            double tMin = hit.tMin;
+            double tMax = hit.tMax;
+            hit.tMin = tMin * scale;
+            hit.tMax = tMax * scale;
+            if (!group.intersect(local, hit)) {
+                hit.tMin = tMin;
+                hit.tMax = tMax;
+                return false;
+            }
+            // nested instances have already set the normal and shader, in the group's space
+            if (!(hit.surface instanceof Instance)) {
+                hit.point.set(local.getOrigin());
+                hit.point.scaleAdd(hit.tMax, local.direction);
+                hit.surface.computeNormal(hit);
+                hit.material = hit.surface.getMaterial();
+            }
+            toObject.transposeTransform(hit.normal, hit.normal).normalize();
+            hit.tMin = tMin;
+            hit.tMax = hit.tMax / scale;
+            hit.surface = this;
+            hit.primitive = -1;
+            return true;
+        } finally {
+            rays.pop();
+        }
+    }
+
+    @Override
+    public boolean occludes (Ray ray, double tMax) {
+        LocalRays rays = LOCAL_RAYS.get();
+        Ray local = rays.push();
+        try {
+            double scale = moveToGroup(ray, local);
+            return group.occludes(local, tMax * scale);
+        } finally {
+            rays.pop();
+        }
+    }
+
+    // set local to the given ray moved into the group's space, returning how many times longer
+    // distances are there
+    private double moveToGroup (Ray ray, Ray local) {
+        toObject.transform(ray.getOrigin(), local.getOrigin());
+        toObject.transform(ray.direction, local.direction);
+        double scale = local.direction.length();
+        local.normalize();
+        return scale;
+    }
+
+    /**
+     * Does nothing, since the normal of a hit is set when it is recorded.
+     */
+    @Override
+    public void computeNormal (Hit hit) {
+    }
+
+    @Override
+    public BoundingBox getBounds () {
+        return toWorld.transform(group.getBounds());
+    }
+
+    // the rays of one thread, one for each instance being traced through, since a ray traced
+    // through an instance may reach others nested in its group while its own is still in use
+    private static final class LocalRays {
+        private final List<Ray> rays = new ArrayList<>();
+        private int depth;
+
+        Ray push () {
+            if (depth == rays.size()) {
+                rays.add(new Ray());
+            }
+            return rays.get(depth++);
+        }
+
+        void pop () {
+            depth--;
+        }
+    }
+}
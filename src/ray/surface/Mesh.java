@@ -0,0 +1,227 @@
+package ray.surface;
+
+import java.io.File;
+import java.io.IOException;
+
+import ray.accel.MeshBVH;
+import ray.accel.MeshCache;
+import ray.accel.RayPacket;
+import ray.math.BoundingBox;
+import ray.math.Point;
+import ray.math.Ray;
+import ray.math.Vector;
+
+/**
+ * A triangle mesh, usually loaded from an OBJ file.
+ *
+ * Vertices are shared between triangles and kept in flat arrays of primitives rather than as
+ * separate Triangle surfaces, and each mesh has its own bounding volume hierarchy, so large models
+ * are quick to load and to intersect. A hit records which triangle was hit as its primitive.
+ * Meshes read from files are kept in the MeshCache, so later runs skip parsing and tree building.
+ *
+ * Triangles are two sided; the normal of a triangle ABC follows the right hand rule, pointing
+ * towards the side from which its vertices appear counterclockwise, as in OBJ files.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class Mesh extends Surface {
+    /** Vertex positions, three coordinates per vertex. */
+    protected double[] vertices = new double[0];
+    /** Indices of the vertices of each triangle, three per triangle. */
+    protected int[] triangles = new int[0];
+    /** Hierarchy over the triangles, rebuilt whenever the geometry changes. */
+    private MeshBVH tree;
+
+    /**
+     * Create an empty mesh, to be loaded from a file.
+     */
+    public Mesh () {
+        setGeometry(vertices, triangles);
+    }
+
+    /**
+     * Create a mesh with the given vertices and triangles, see setGeometry.
+     */
+    public Mesh (double[] vertices, int[] triangles) {
+        setGeometry(vertices, triangles);
+    }
+
+    // PARSER METHODS
+    public void setFile (File file) {
+        try {
+            MeshCache cache = MeshCache.getDirectory() != null ? new MeshCache(file) : null;
+            if (cache == null || !cache.load(this)) {
+                ObjReader.read(file, this);
+                if (cache != null) {
+                    cache.store(this);
+                }
+            }
+        } catch (IOException e) {
+            throw new Error("Error reading mesh file " + file + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Replace the geometry of this mesh.
+     *
+     * @param newVertices three coordinates per vertex
+     * @param newTriangles three vertex indices per triangle
+     */
+    public void setGeometry (double[] newVertices, int[] newTriangles) {
+        setGeometry(newVertices, newTriangles, null);
+    }
+
+    /**
+     * Replace the geometry of this mesh, reusing a tree already built over the new triangles,
+     * such as one read back from a MeshCache. The tree is built again if it is null.
+     */
+    public void setGeometry (double[] newVertices, int[] newTriangles, MeshBVH newTree) {
+        if (newVertices.length % 3 != 0 || newTriangles.length % 3 != 0) {
+            throw new Error("Mesh arrays must hold three values per vertex and per triangle");
+        }
+        for (int index : newTriangles) {
+            if (index < 0 || 3 * index >= newVertices.length) {
+                throw new Error("Mesh vertex index out of range: " + index);
+            }
+        }
+        vertices = newVertices;
+        triangles = newTriangles;
+        tree = newTree != null ? newTree : new MeshBVH(this);
+    }
+
+    public double[] getVertices () {
+        return vertices;
+    }
+
+    public int[] getTriangles () {
+        return triangles;
+    }
+
+    public MeshBVH getTree () {
+        return tree;
+    }
+
+    public int getNumTriangles () {
+        return triangles.length / 3;
+    }
+
+
+    @Override
+    public boolean intersect (Ray ray, Hit hit) {
+        return tree.intersect(ray, hit);
+    }
+
+    @Override
+    public void intersect (RayPacket packet) {
+        tree.intersect(packet);
+    }
+
+    @Override
+    public boolean occludes (Ray ray, double tMax) {
+        return tree.occludes(ray, tMax);
+    }
+
+    /**
+     * Intersect the ray with the given triangle, recording the hit if it is closer than any found
+     * so far.
+     *
+     * @return true if a closer hit was recorded
+     */
+    public boolean intersectTriangle (int triangle, Ray ray, Hit hit) {
+        return hit.record(distance(triangle, ray), this, triangle);
+    }
+
+    /**
+     * Returns true if the ray hits the given triangle between Ray.EPSILON and tMax.
+     */
+    public boolean occludesTriangle (int triangle, Ray ray, double tMax) {
+        double t = distance(triangle, ray);
+        return t > Ray.EPSILON && t < tMax;
+    }
+
+    /**
+     * Returns the distance along the ray to the given triangle, NaN if it misses.
+     */
+    private double distance (int triangle, Ray ray) {
+        // Moller-Trumbore: solve o + td = a + u(b - a) + v(c - a) by Cramer's rule
+        int a = 3 * triangles[3 * triangle];
+        int b = 3 * triangles[3 * triangle + 1];
+        int c = 3 * triangles[3 * triangle + 2];
+        double e1x = vertices[b] - vertices[a];
+        double e1y = vertices[b + 1] - vertices[a + 1];
+        double e1z = vertices[b + 2] - vertices[a + 2];
+        double e2x = vertices[c] - vertices[a];
+        double e2y = vertices[c + 1] - vertices[a + 1];
+        double e2z = vertices[c + 2] - vertices[a + 2];
+        Vector d = ray.direction;
+        double px = d.y * e2z - d.z * e2y;
+        double py = d.z * e2x - d.x * e2z;
+        double pz = d.x * e2y - d.y * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0) {
+            return Double.NaN;
+        }
+        double inverse = 1 / det;
+        Point o = ray.getOrigin();
+        double sx = o.x - vertices[a];
+        double sy = o.y - vertices[a + 1];
+        double sz = o.z - vertices[a + 2];
+        double u = (sx * px + sy * py + sz * pz) * inverse;
+        if (u < 0 || u > 1) {
+            return Double.NaN;
+        }
+        double qx = sy * e1z - sz * e1y;
+        double qy = sz * e1x - sx * e1z;
+        double qz = sx * e1y - sy * e1x;
+        double v = (d.x * qx + d.y * qy + d.z * qz) * inverse;
+        if (v < 0 || u + v > 1) {
+            return Double.NaN;
+        }
+        return (e2x * qx + e2y * qy + e2z * qz) * inverse;
+    }
+
+    /**
+     * Stores the smallest box containing the given triangle at boxes[offset] through
+     * boxes[offset + 5], minimum corner first.
+     */
+    public void getTriangleBounds (int triangle, double[] boxes, int offset) {
+        for (int axis = 0; axis < 3; axis++) {
+            double a = vertices[3 * triangles[3 * triangle] + axis];
+            double b = vertices[3 * triangles[3 * triangle + 1] + axis];
+            double c = vertices[3 * triangles[3 * triangle + 2] + axis];
+            boxes[offset + axis] = Math.min(a, Math.min(b, c));
+            boxes[offset + axis + 3] = Math.max(a, Math.max(b, c));
+        }
+    }
+
+    @Override
+    public void computeNormal (Hit hit) {
+        getTriangleNormal(hit.primitive, hit.normal);
+    }
+
+    /**
+     * Stores the unit normal of the given triangle in normal.
+     */
+    public void getTriangleNormal (int triangle, Vector normal) {
+        int a = 3 * triangles[3 * triangle];
+        int b = 3 * triangles[3 * triangle + 1];
+        int c = 3 * triangles[3 * triangle + 2];
+        Vector u = new Vector(vertices[b] - vertices[a], vertices[b + 1] - vertices[a + 1],
+                              vertices[b + 2] - vertices[a + 2]);
+        Vector v = new Vector(vertices[c] - vertices[a], vertices[c + 1] - vertices[a + 1],
+                              vertices[c + 2] - vertices[a + 2]);
+        normal.set(u.cross(v).normalize());
+    }
+
+    @Override
+    public BoundingBox getBounds () {
+        BoundingBox box = new BoundingBox();
+        Point p = new Point();
+        for (int i = 0; i < vertices.length; i += 3) {
+            p.set(vertices[i], vertices[i + 1], vertices[i + 2]);
+            box.expand(p);
+        }
+        return box;
+    }
+}
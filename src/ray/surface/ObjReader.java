@@ -0,0 +1,120 @@
+package ray.surface;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the geometry of a Wavefront OBJ file into a Mesh.
+ *
+ * The file is read one line at a time straight into growing arrays of primitives, so even models
+ * with millions of triangles load quickly. Only vertex positions (v) and faces (f) are used;
+ * faces with more than three vertices are split into a fan of triangles, and texture coordinates,
+ * normals, groups and materials are ignored.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class ObjReader {
+    private double[] vertices = new double[3 * 1024];
+    private int numVertices;
+    private int[] triangles = new int[3 * 1024];
+    private int numTriangles;
+    // vertex indices of the face being read
+    private int[] face = new int[16];
+
+    /**
+     * Replace the geometry of the given mesh with that read from the given file.
+     */
+    public static void read (File file, Mesh mesh) throws IOException {
+        ObjReader reader = new ObjReader();
+        try (BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                try {
+                    reader.parseLine(line);
+                } catch (RuntimeException e) {
+                    throw new IOException("line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        mesh.setGeometry(Arrays.copyOf(reader.vertices, 3 * reader.numVertices),
+                         Arrays.copyOf(reader.triangles, 3 * reader.numTriangles));
+    }
+
+    private void parseLine (String line) {
+        int start = skipSpaces(line, 0);
+        int end = skipToken(line, start);
+        if (end - start != 1) {
+            return;
+        }
+        char command = line.charAt(start);
+        if (command == 'v') {
+            if (3 * numVertices + 3 > vertices.length) {
+                vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                start = skipSpaces(line, end);
+                end = skipToken(line, start);
+                if (start == end) {
+                    throw new IllegalArgumentException("vertex needs three coordinates");
+                }
+                vertices[3 * numVertices + axis] = Double.parseDouble(line.substring(start, end));
+            }
+            numVertices++;
+        } else if (command == 'f') {
+            int n = 0;
+            while ((start = skipSpaces(line, end)) < line.length()) {
+                end = skipToken(line, start);
+                if (n == face.length) {
+                    face = Arrays.copyOf(face, 2 * n);
+                }
+                face[n++] = parseIndex(line, start, end);
+            }
+            if (n < 3) {
+                throw new IllegalArgumentException("face needs at least three vertices");
+            }
+            for (int i = 2; i < n; i++) {
+                if (3 * numTriangles + 3 > triangles.length) {
+                    triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+                }
+                triangles[3 * numTriangles] = face[0];
+                triangles[3 * numTriangles + 1] = face[i - 1];
+                triangles[3 * numTriangles + 2] = face[i];
+                numTriangles++;
+            }
+        }
+    }
+
+    // the vertex of a face entry such as 7, 7/2 or 7//3, converted to a zero based index
+    private int parseIndex (String line, int start, int end) {
+        int slash = line.indexOf('/', start);
+        if (slash >= 0 && slash < end) {
+            end = slash;
+        }
+        int index = Integer.parseInt(line.substring(start, end));
+        // negative indices count back from the last vertex read
+        index = index < 0 ? numVertices + index : index - 1;
+        if (index < 0 || index >= numVertices) {
+            throw new IllegalArgumentException("no vertex " + line.substring(start, end));
+        }
+        return index;
+    }
+
+    private static int skipSpaces (String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipToken (String line, int i) {
+        while (i < line.length() && !Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
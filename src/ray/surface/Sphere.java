@@ -1,5 +1,7 @@
 package ray.surface;
 
+import ray.accel.RayPacket;
+import ray.math.BoundingBox;
 import ray.math.Point;
 import ray.math.Ray;
 import ray.math.Vector;
@@ -17,6 +19,9 @@ public class Sphere extends Surface {
     /** The radius of the sphere. */
     protected double radius = 1.0;
 
+    /** Radius squared, kept up to date with radius. */
+    private double radiusSquared = 1.0;
+
     // PARSER METHODS
     public void setCenter (Point center) {
         this.center.set(center);
@@ -24,45 +29,100 @@ public class Sphere extends Surface {
 
     public void setRadius (double radius) {
         this.radius = radius;
+        radiusSquared = radius * radius;
+    }
+
+    public Point getCenter () {
+        return center;
+    }
+
+    public double getRadius () {
+        return radius;
+    }
+
+
+    @Override
+    public boolean intersect (Ray ray, Hit hit) {
+        /** Formula, with d normalized so d.d = 1 and b halved:
+         *
+         *  t^2 + 2bt + (e-c).(e-c) - R^2 = 0,  where b = d.(e-c)
+         *  then, t = -b -/+ sqrt(b^2 - ((e-c).(e-c) - R^2))
+         *
+         */
+        double ex = ray.getOrigin().x - center.x;
+        double ey = ray.getOrigin().y - center.y;
+        double ez = ray.getOrigin().z - center.z;
+        Vector d = ray.direction;
+        double b = d.x * ex + d.y * ey + d.z * ez;
+        double c = ex * ex + ey * ey + ez * ez - radiusSquared;
+        double discriminant = b * b - c;
+        if (discriminant < 0) {
+            return false;
+        }
+        double root = Math.sqrt(discriminant);
+        // prefer the near root, but use the far one when starting inside the sphere
+        double t = -b - root;
+        if (t <= hit.tMin) {
+            t = -b + root;
+        }
+        return hit.record(t, this);
     }
 
+    @Override
+    public void intersect (RayPacket packet) {
+        // the origin is shared, so only b depends on the ray
+        double ex = packet.ox - center.x;
+        double ey = packet.oy - center.y;
+        double ez = packet.oz - center.z;
+        double c = ex * ex + ey * ey + ez * ez - radiusSquared;
+        double tMin = packet.tMin;
+        for (int i = 0; i < packet.size; i++) {
+            double b = packet.dx[i] * ex + packet.dy[i] * ey + packet.dz[i] * ez;
+            double discriminant = b * b - c;
+            if (discriminant < 0) {
+                continue;
+            }
+            double root = Math.sqrt(discriminant);
+            double t = -b - root;
+            if (t <= tMin) {
+                t = -b + root;
+            }
+            if (t > tMin && t < packet.tMax[i]) {
+                packet.tMax[i] = t;
+                packet.surfaces[i] = this;
+                packet.primitives[i] = -1;
+                packet.materials[i] = Hit.NO_MATERIAL;
+            }
+        }
+    }
+
+    @Override
+    public boolean occludes (Ray ray, double tMax) {
+        double ex = ray.getOrigin().x - center.x;
+        double ey = ray.getOrigin().y - center.y;
+        double ez = ray.getOrigin().z - center.z;
+        Vector d = ray.direction;
+        double b = d.x * ex + d.y * ey + d.z * ez;
+        double c = ex * ex + ey * ey + ez * ez - radiusSquared;
+        double discriminant = b * b - c;
+        if (discriminant < 0) {
+            return false;
+        }
+        double root = Math.sqrt(discriminant);
+        double near = -b - root;
+        double far = -b + root;
+        return (near > Ray.EPSILON && near < tMax) || (far > Ray.EPSILON && far < tMax);
+    }
 
     @Override
-    public double[] getIntersection (Ray ray) {
-        // TODO: return t values at which this ray intersects this surface
-    	/** Formula: 
-    	 *	
-    	 *  (d.d)t^2 + ((2d).(e-c))t + (e-c).(e-c) - R^2 = 0
-    	 *  then, hitpoints = e + dt
-    	 *
-    	 */
-    	Vector diff = ray.getOrigin().sub(this.center);
-    	Vector dir_copy = new Vector(ray.getDirection());
-    	double a = ray.direction.dot(ray.getDirection());
-    	double b = diff.dot(dir_copy.scale(2));
-    	double c = diff.dot(diff) - Math.pow(radius, 2);
-    	
-    	double discriminant = Math.pow(b, 2) - (4.0 * a * c);
-    	
-    	if(discriminant < 0){
-    		return new double[0];
-    	}
-    	else if(discriminant < 0.000001){
-    		double[] one_return = {((-1.0 * b) / (2.0 * a))};
-    		return one_return;
-    	}
-    	else{
-    		double root_dis = Math.sqrt(discriminant);
-    		double first = (-1.0 * b) + root_dis;
-    		double second = (-1.0 * b) - root_dis;
-    		double[] two_return = {(first/(2.0 * a)), (second/(2.0 * a))};
-    		return two_return;
-    	}
+    public void computeNormal (Hit hit) {
+        hit.normal.set(hit.point.x - center.x, hit.point.y - center.y, hit.point.z - center.z);
+        hit.normal.normalize();
     }
 
     @Override
-    public Vector getNormal (Point pt) {
-        // TODO: return vector representing this surface's normal at this point
-        return pt.sub(center).normalize();
+    public BoundingBox getBounds () {
+        Vector extent = new Vector(radius, radius, radius);
+        return new BoundingBox(center.sub(extent), center.add(extent));
     }
 }
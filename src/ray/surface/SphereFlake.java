@@ -0,0 +1,245 @@
+package ray.surface;
+
+import ray.math.BoundingBox;
+import ray.math.Point;
+import ray.math.Ray;
+import ray.math.Vector;
+
+/**
+ * A sphereflake generated on the fly instead of being listed sphere by sphere.
+ *
+ * The flake is a sphere with six children, half its size, touching it along the positive and
+ * negative axes. Each child has five children of its own in the same way, all but the one that
+ * would grow back into its parent, and so on for the given number of levels. This is the shape of
+ * the sphereflake data files: depth 4 gives the 937 spheres of sphereflake_5.xml, depth 9 almost
+ * three million.
+ *
+ * No sphere is stored. Intersection walks the flake recursively, nearest children first, and
+ * skips any sub-flake whose bounding sphere the ray misses or only reaches beyond the closest hit
+ * so far. The normal is filled in as soon as a hit is recorded, since which sphere was hit is
+ * not remembered.
+ *
+ * @author Eli Williams (erw19)
+ */
+public class SphereFlake extends Surface {
+    /** Radius of each child relative to its parent. */
+    private static final double CHILD_SCALE = 0.5;
+    /** Distance from the center of a sphere to those of its children, relative to its radius. */
+    private static final double CHILD_DISTANCE = 1.5;
+    /** Unit directions of the children, opposite directions next to each other. */
+    private static final double[][] DIRECTIONS = {
+        { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 }, { 0, 0, 1 }, { 0, 0, -1 }
+    };
+    /** Bounding spheres are grown by this much so rounding never loses a grazing hit. */
+    private static final double BOUND_MARGIN = 1e-9;
+
+    // These fields are read in from the input file.
+    /** The center of the largest sphere. */
+    protected final Point center = new Point();
+    /** The radius of the largest sphere. */
+    protected double radius = 1.0;
+    /** The number of levels of children. */
+    protected int depth = 0;
+
+    /** Bounding sphere radius of a sub-flake with k levels below its root, relative to the root. */
+    private double[] bounds;
+
+    public SphereFlake () {
+        setDepth(depth);
+    }
+
+    // PARSER METHODS
+    public void setCenter (Point center) {
+        this.center.set(center);
+    }
+
+    public void setRadius (double radius) {
+        this.radius = radius;
+    }
+
+    public void setDepth (int depth) {
+        this.depth = depth;
+        bounds = new double[depth + 1];
+        bounds[0] = 1;
+        for (int k = 1; k <= depth; k++) {
+            bounds[k] = CHILD_DISTANCE + CHILD_SCALE * bounds[k - 1];
+        }
+        for (int k = 0; k <= depth; k++) {
+            bounds[k] *= 1 + BOUND_MARGIN;
+        }
+    }
+
+    public Point getCenter () {
+        return center;
+    }
+
+    public double getRadius () {
+        return radius;
+    }
+
+    public int getDepth () {
+        return depth;
+    }
+
+
+    /**
+     * Returns the number of spheres in the flake.
+     */
+    public long getNumSpheres () {
+        long total = 1;
+        long level = 6;
+        for (int k = 1; k <= depth; k++) {
+            total += level;
+            level *= 5;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean intersect (Ray ray, Hit hit) {
+        return intersect(center.x, center.y, center.z, radius, -1, depth, ray, order(ray), hit);
+    }
+
+    // visits the sphere at c with radius r and its descendants, having come from direction from;
+    // order lists the directions to visit children in, as packed by order(Ray)
+    private boolean intersect (double cx, double cy, double cz, double r, int from, int levels,
+                               Ray ray, int order, Hit hit) {
+        double ex = ray.getOrigin().x - cx;
+        double ey = ray.getOrigin().y - cy;
+        double ez = ray.getOrigin().z - cz;
+        Vector d = ray.direction;
+        double b = d.x * ex + d.y * ey + d.z * ez;
+        double ee = ex * ex + ey * ey + ez * ez;
+        if (levels > 0 && missesBound(b, ee, r * bounds[levels], hit.tMin, hit.tMax)) {
+            return false;
+        }
+        // the sphere itself, as in Sphere
+        boolean found = false;
+        double discriminant = b * b - (ee - r * r);
+        if (discriminant >= 0) {
+            double root = Math.sqrt(discriminant);
+            double t = -b - root;
+            if (t <= hit.tMin) {
+                t = -b + root;
+            }
+            if (hit.record(t, this)) {
+                hit.normal.set((ex + t * d.x) / r, (ey + t * d.y) / r, (ez + t * d.z) / r);
+                found = true;
+            }
+        }
+        if (levels == 0) {
+            return found;
+        }
+        double offset = CHILD_DISTANCE * r;
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            int k = direction(order, i);
+            // skip the child that would grow back into the parent
+            if ((k ^ 1) == from) {
+                continue;
+            }
+            double[] dir = DIRECTIONS[k];
+            found |= intersect(cx + offset * dir[0], cy + offset * dir[1], cz + offset * dir[2],
+                               CHILD_SCALE * r, k, levels - 1, ray, order, hit);
+        }
+        return found;
+    }
+
+    @Override
+    public boolean occludes (Ray ray, double tMax) {
+        return occludes(center.x, center.y, center.z, radius, -1, depth, ray, tMax);
+    }
+
+    private boolean occludes (double cx, double cy, double cz, double r, int from, int levels,
+                              Ray ray, double tMax) {
+        double ex = ray.getOrigin().x - cx;
+        double ey = ray.getOrigin().y - cy;
+        double ez = ray.getOrigin().z - cz;
+        Vector d = ray.direction;
+        double b = d.x * ex + d.y * ey + d.z * ez;
+        double ee = ex * ex + ey * ey + ez * ez;
+        if (levels > 0 && missesBound(b, ee, r * bounds[levels], Ray.EPSILON, tMax)) {
+            return false;
+        }
+        double discriminant = b * b - (ee - r * r);
+        if (discriminant >= 0) {
+            double root = Math.sqrt(discriminant);
+            double near = -b - root;
+            double far = -b + root;
+            if ((near > Ray.EPSILON && near < tMax) || (far > Ray.EPSILON && far < tMax)) {
+                return true;
+            }
+        }
+        if (levels == 0) {
+            return false;
+        }
+        double offset = CHILD_DISTANCE * r;
+        for (int k = 0; k < DIRECTIONS.length; k++) {
+            if ((k ^ 1) == from) {
+                continue;
+            }
+            double[] dir = DIRECTIONS[k];
+            if (occludes(cx + offset * dir[0], cy + offset * dir[1], cz + offset * dir[2],
+                         CHILD_SCALE * r, k, levels - 1, ray, tMax)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // true if the ray stays out of the sphere of the given radius between tMin and tMax; b is
+    // the direction dotted with the origin's offset from the center, ee that offset squared
+    private static boolean missesBound (double b, double ee, double bound, double tMin,
+                                        double tMax) {
+        double discriminant = b * b - (ee - bound * bound);
+        if (discriminant < 0) {
+            return true;
+        }
+        double root = Math.sqrt(discriminant);
+        return -b + root <= tMin || -b - root >= tMax;
+    }
+
+    // the directions sorted so that, for any sphere, children nearer along the ray come first,
+    // packed three bits each into an int so that no array is allocated per ray
+    private static int order (Ray ray) {
+        int order = 0;
+        for (int k = 0; k < DIRECTIONS.length; k++) {
+            double key = key(k, ray);
+            int j = k;
+            for (; j > 0 && key(direction(order, j - 1), ray) > key; j--) {
+                order = withDirection(order, j, direction(order, j - 1));
+            }
+            order = withDirection(order, j, k);
+        }
+        return order;
+    }
+
+    // how far along the ray the child in direction k lies, relative to the others
+    private static double key (int k, Ray ray) {
+        double[] dir = DIRECTIONS[k];
+        return dir[0] * ray.direction.x + dir[1] * ray.direction.y + dir[2] * ray.direction.z;
+    }
+
+    // the direction at position i of a packed order
+    private static int direction (int order, int i) {
+        return order >>> (3 * i) & 7;
+    }
+
+    // the packed order with direction k at position i
+    private static int withDirection (int order, int i, int k) {
+        return order & ~(7 << (3 * i)) | k << (3 * i);
+    }
+
+    /**
+     * Does nothing, since the normal of a hit is set when it is recorded.
+     */
+    @Override
+    public void computeNormal (Hit hit) {
+    }
+
+    @Override
+    public BoundingBox getBounds () {
+        double extent = radius * bounds[depth];
+        return new BoundingBox(new Point(center.x - extent, center.y - extent, center.z - extent),
+                               new Point(center.x + extent, center.y + extent, center.z + extent));
+    }
+}
@@ -1,8 +1,10 @@
 package ray.surface;
 
+import ray.accel.RayPacket;
+import ray.math.BoundingBox;
 import ray.math.Point;
 import ray.math.Ray;
-import ray.math.Vector;
+import ray.shader.MaterialTable;
 import ray.shader.Shader;
 
 
@@ -14,6 +16,8 @@ import ray.shader.Shader;
 public abstract class Surface {
     /** Shader to be used to shade this surface. */
     protected Shader shader = Shader.DEFAULT_MATERIAL;
+    /** Id of shader in the scene's table of materials, set when the scene is initialized. */
+    protected int material = Hit.NO_MATERIAL;
 
     // PARSER METHODS
     public void setShader (Shader material) {
@@ -24,28 +28,95 @@ public abstract class Surface {
         return shader;
     }
 
+    /**
+     * Returns the id of the shader among the scene's materials.
+     */
+    public int getMaterial () {
+        return material;
+    }
+
+
+    /**
+     * Prepares this surface for rendering once all of its properties have been set, by
+     * computing whatever does not depend on the ray. Scene.initialize calls this on every surface
+     * before any ray is traced; surfaces must not be changed afterwards. By default there is
+     * nothing to do.
+     */
+    public void initialize () {
+    }
+
+    /**
+     * Precomputes, for rays starting at each of the given points, whatever depends only on the
+     * origin. Such rays carry the index of their origin as their originId. Scene.initialize calls
+     * this after initialize, with the camera and light positions. By default nothing is cached.
+     */
+    public void cacheOrigins (Point[] origins) {
+    }
+
+    /**
+     * Adds the shader of this surface, and of any surfaces it holds, to the given table, sharing
+     * the one already there if an equal shader was added before. Scene.initialize calls this
+     * before initialize.
+     */
+    public void internMaterials (MaterialTable materials) {
+        material = materials.intern(shader);
+        shader = materials.get(material);
+    }
 
     /**
      * Calculates true if the given ray intersects this surface.
      */ 
     public boolean intersects (Ray ray) {
-        return getIntersection(ray).length > 0;
+        return occludes(ray, Double.POSITIVE_INFINITY);
     }
 
     /**
-     * Calculates t values for which ray intersects this surface, 
-     * returns an array with 0, 1, or 2 elements.
+     * Intersects the given ray with this surface. If it hits this surface inside the interval
+     * of the hit record, the closest such hit is recorded there and true is returned; otherwise
+     * the record is left alone.
      *
      * @param ray the ray being projected
-     * @return an array of t values for which an intersection of this surface with ray occurs
+     * @param hit the closest hit found so far
+     * @return true if a closer hit was recorded
      */
-    public abstract double[] getIntersection (Ray ray);
+    public abstract boolean intersect (Ray ray, Hit hit);
 
     /**
-     * Returns the normal vector to this surface at point
+     * Intersects every ray of the given packet with this surface, recording closer hits in the
+     * packet.
+     *
+     * By default the rays are tested one at a time; subclasses should override this when they
+     * can make use of the rays sharing an origin.
+     */
+    public void intersect (RayPacket packet) {
+        Hit hit = packet.scratch;
+        for (int i = 0; i < packet.size; i++) {
+            if (intersect(packet.rays[i], packet.getHit(i, hit))) {
+                packet.setHit(i, hit);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given ray hits this surface at a distance between Ray.EPSILON and tMax.
+     *
+     * Subclasses should override this when they can answer without finding the closest hit.
      *
-     * @param point the point for which we're calculating the normal vector
-     * @return the normal vector to surface at point
+     * @param ray the ray being projected, usually a shadow ray
+     * @param tMax the distance beyond which hits do not count
+     */
+    public boolean occludes (Ray ray, double tMax) {
+        return intersect(ray, new Hit().reset(Ray.EPSILON, tMax));
+    }
+
+    /**
+     * Fills in the unit normal of a hit on this surface, whose point is already set. Surfaces
+     * made of several parts use the part recorded in the hit.
+     */
+    public abstract void computeNormal (Hit hit);
+
+    /**
+     * Returns the smallest axis aligned box that contains this surface
      */
-    public abstract Vector getNormal (Point point);
+    public abstract BoundingBox getBounds ();
 }
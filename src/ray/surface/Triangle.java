@@ -1,5 +1,6 @@
 package ray.surface;
 
+import ray.math.BoundingBox;
 import ray.math.Point;
 import ray.math.Ray;
 import ray.math.Vector;
@@ -16,6 +17,16 @@ public class Triangle extends Surface {
     protected final Point b = new Point();
     protected final Point c = new Point();
 
+    // Computed when the triangle is initialized.
+    /* Edges u = c - a and v = b - a, and their (unnormalized) cross product n */
+    private double ux, uy, uz, vx, vy, vz, nx, ny, nz;
+    /* Dot products of the edges, and the denominator of the barycentric coordinates */
+    private double uu, uv, vv, den;
+    /** The unit normal, u x v normalized. */
+    private final Vector normal = new Vector();
+    /* For rays from each shared origin, its offset g from a and the plane term y of distance */
+    private double[] originTerms;
+
     // PARSER METHODS
     public void setA (Point pt) {
         a.set(pt);
@@ -29,50 +40,110 @@ public class Triangle extends Surface {
         c.set(pt);
     }
 
+    public Point getA () {
+        return a;
+    }
+
+    public Point getB () {
+        return b;
+    }
+
+    public Point getC () {
+        return c;
+    }
+
+
+    @Override
+    public void initialize () {
+        ux = c.x - a.x;
+        uy = c.y - a.y;
+        uz = c.z - a.z;
+        vx = b.x - a.x;
+        vy = b.y - a.y;
+        vz = b.z - a.z;
+        nx = uy * vz - uz * vy;
+        ny = uz * vx - ux * vz;
+        nz = ux * vy - uy * vx;
+        uu = ux * ux + uy * uy + uz * uz;
+        uv = ux * vx + uy * vy + uz * vz;
+        vv = vx * vx + vy * vy + vz * vz;
+        den = (uv * uv) - (uu * vv);
+        Vector u = c.sub(a);
+        Vector v = b.sub(a);
+        normal.set(u.cross(v).normalize());
+    }
+
+    @Override
+    public void cacheOrigins (Point[] origins) {
+        double[] terms = new double[4 * origins.length];
+        for (int id = 0; id < origins.length; id++) {
+            Point e = origins[id];
+            double gx = e.x - a.x, gy = e.y - a.y, gz = e.z - a.z;
+            terms[4 * id + 0] = gx;
+            terms[4 * id + 1] = gy;
+            terms[4 * id + 2] = gz;
+            terms[4 * id + 3] = -(nx * gx + ny * gy + nz * gz);
+        }
+        originTerms = terms;
+    }
+
+    @Override
+    public boolean intersect (Ray ray, Hit hit) {
+        double t = distance(ray);
+        return hit.record(t, this);
+    }
+
+    @Override
+    public boolean occludes (Ray ray, double tMax) {
+        double t = distance(ray);
+        return t > Ray.EPSILON && t < tMax;
+    }
+
+    /**
+     * Returns the distance along the ray to this triangle, NaN if it misses.
+     */
+    private double distance (Ray ray) {
+        // distance to the plane of the triangle
+        Point e = ray.getOrigin();
+        Vector d = ray.direction;
+        double gx, gy, gz, y;
+        double[] terms = originTerms;
+        int id = ray.originId;
+        if (terms != null && id >= 0 && 4 * id < terms.length) {
+            gx = terms[4 * id + 0];
+            gy = terms[4 * id + 1];
+            gz = terms[4 * id + 2];
+            y = terms[4 * id + 3];
+        } else {
+            gx = e.x - a.x;
+            gy = e.y - a.y;
+            gz = e.z - a.z;
+            y = -(nx * gx + ny * gy + nz * gz);
+        }
+        double z = nx * d.x + ny * d.y + nz * d.z;
+        double i = y / z;
+        if (!(i >= 0.0)) {
+            return Double.NaN;
+        }
+        // barycentric coordinates of the point where the ray meets the plane
+        double wx = gx + i * d.x, wy = gy + i * d.y, wz = gz + i * d.z;
+        double wu = wx * ux + wy * uy + wz * uz;
+        double wv = wx * vx + wy * vy + wz * vz;
+        double beta = ((uv * wv) - (vv * wu)) / den;
+        double gamma = ((uv * wu) - (uu * wv)) / den;
+        if (beta < 0.0 || beta > 1.0 || gamma < 0.0 || (beta + gamma) > 1.0) {
+            return Double.NaN;
+        }
+        return i;
+    }
 
     @Override
-    public double[] getIntersection (Ray ray) {
-        // TODO: return t values at which this ray intersects this surface
-    	Vector u = c.sub(a);
-    	Vector v = b.sub(a);
-    	Vector g = ray.getOrigin().sub(a);
-    	double y = -1.0 * ((u.cross(v).dot(g)));
-    	double z = (u.cross(v).dot(ray.getDirection()));
-    	Vector ray_dir = new Vector(ray.getDirection());
-    	double i = y / z;
-    	Point plane_intersect = ray.getOrigin().add(ray_dir.scale(i));
-    	Vector w = plane_intersect.sub(a);
-    	double uu = u.dot(u);
-    	double uv = u.dot(v);
-    	double vv = v.dot(v);
-    	double d = ((uv * uv) - (uu * vv));
-    	double wu = w.dot(u);
-    	double wv = w.dot(v);
-    	
-    	double beta = ((uv * wv) - (vv * wu)) / d;
-    	double gamma = ((uv * wu) - (uu * wv)) / d;
-    	
-    	if(i < 0.0){
-    		return new double[0];
-    	}
-    	else if(beta < 0.0 || beta > 1.0){
-    		return new double[0];
-    	}
-    	else if(gamma < 0.0 || (beta + gamma) > 1.0){
-    		return new double[0];
-    	}
-    	else{
-    		double[] ret = {i};
-    		return ret;
-    	}
+    public void computeNormal (Hit hit) {
+        hit.normal.set(normal);
     }
 
     @Override
-    public Vector getNormal (Point point) {
-        // TODO: return vector representing this surface's normal at this point
-    	// ignore @param point and calculate normal using triangle's vertices
-    	Vector u = c.sub(a);
-    	Vector v = b.sub(a);
-        return u.cross(v).normalize();
+    public BoundingBox getBounds () {
+        return new BoundingBox().expand(a).expand(b).expand(c);
     }
 }